@@ -0,0 +1,70 @@
+package javax.game.sidescroller;
+
+/**
+ * Skips frames when rendering one now would make the loop miss its next deadline
+ *
+ * Keeps an exponentially weighted moving average of how long frames
+ * take to render. A frame is skipped if it is already late, and the
+ * lateness plus the expected cost of rendering would exceed the frame
+ * budget. This reacts as soon as a single frame is late by more than
+ * the slack left in the budget, rather than after a fixed delay.
+ */
+public class AdaptiveFrameSkipPolicy implements FrameSkipPolicy {
+
+    /**
+     * Never skip more than this many frames in a row
+     */
+    private int maxFrameSkips;
+
+    /**
+     * How much weight each new render time gets in the average
+     */
+    private double weight;
+
+    /**
+     * Average nanoseconds spent rendering a frame
+     */
+    private volatile double renderCost = 0;
+
+    /**
+     * Creates a new policy with a moving average weight of 0.2
+     *
+     * @param maxFrameSkips Never skip more than this many frames in a row
+     */
+    public AdaptiveFrameSkipPolicy ( int maxFrameSkips ) {
+        this ( maxFrameSkips, 0.2 );
+    }
+
+    /**
+     * Creates a new policy
+     *
+     * @param maxFrameSkips Never skip more than this many frames in a row
+     * @param weight Weight (0 to 1) of each new render time in the moving average
+     */
+    public AdaptiveFrameSkipPolicy ( int maxFrameSkips, double weight ) {
+        this.maxFrameSkips = maxFrameSkips;
+        this.weight = weight;
+    }
+
+    @Override
+    public boolean shouldRender ( long lateness, long budget, int skipped ) {
+        if ( skipped >= this.maxFrameSkips || lateness <= 0 )
+            return true;
+
+        return lateness + this.renderCost <= budget;
+    }
+
+    @Override
+    public void rendered ( long nanos ) {
+        this.renderCost += ( nanos - this.renderCost ) * this.weight;
+    }
+
+    /**
+     * Returns the average number of nanoseconds spent rendering a frame
+     *
+     * @return the average number of nanoseconds spent rendering a frame
+     */
+    public double getRenderCost ( ) {
+        return this.renderCost;
+    }
+}
@@ -0,0 +1,477 @@
+package javax.game.sidescroller;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Loads the images a game needs in parallel, in the background
+ *
+ * Images are declared by name, either one at a time or from a manifest,
+ * and start decoding on a pool of worker threads right away. Declaring an
+ * image hands out a Future for it, so sprites and ribbons can be built as
+ * soon as their images are ready, and the game can tell how far along
+ * loading is from {@link #getProgress()}.
+ *
+ * Some images are essential: the game cannot start without them. Once
+ * every essential image has loaded, the rest may keep loading while the
+ * game runs. Given to {@link GamePanel#setAssets(AssetPipeline)}, the game
+ * shows a loading screen instead of running until the essentials are ready.
+ *
+ * <pre>
+ * AssetPipeline assets = new AssetPipeline ( );
+ * assets.setCache ( new ImageCache ( cacheDirectory ) );
+ * assets.declareAll ( manifest, base, true );
+ * Future&lt;BufferedImage&gt; sky = assets.declare ( "sky", skyUrl, false );
+ * game.setAssets ( assets );
+ * game.start ( );
+ * </pre>
+ */
+public class AssetPipeline implements Closeable {
+
+    private final ExecutorService workers;
+    private final Map<String, Future<BufferedImage>> images = new ConcurrentHashMap<String, Future<BufferedImage>> ( );
+
+    private final AtomicInteger declared = new AtomicInteger ( );
+    private final AtomicInteger completed = new AtomicInteger ( );
+    private final AtomicInteger failed = new AtomicInteger ( );
+
+    /**
+     * Number of essential images not yet loaded
+     */
+    private int essentials = 0;
+    private final Object essentialsLock = new Object ( );
+
+    /**
+     * Whether images are converted to the format of the screen once decoded
+     */
+    private volatile boolean compatible = true;
+
+    private volatile ImageCache cache;
+
+    /**
+     * Creates a new pipeline with one worker thread per processor
+     */
+    public AssetPipeline ( ) {
+        this ( Runtime.getRuntime ( ).availableProcessors ( ) );
+    }
+
+    /**
+     * Creates a new pipeline with the given number of daemon worker threads
+     *
+     * @param threads The number of images to decode at once
+     */
+    public AssetPipeline ( int threads ) {
+        this ( threads, new ThreadFactory ( ) {
+            @Override
+            public Thread newThread ( Runnable r ) {
+                Thread t = new Thread ( r, "AssetPipeline decoder" );
+                t.setDaemon ( true );
+                return t;
+            }
+        } );
+    }
+
+    /**
+     * Creates a new pipeline with the given number of worker threads,
+     * created by the given factory
+     *
+     * @param threads The number of images to decode at once
+     * @param factory Creates the worker threads
+     */
+    public AssetPipeline ( int threads, ThreadFactory factory ) {
+        this.workers = Executors.newFixedThreadPool ( threads, factory );
+    }
+
+    /**
+     * Sets whether decoded images are converted to the format of the
+     * screen, so that drawing them can be accelerated. On by default,
+     * and never done when headless.
+     *
+     * @param compatible Whether to convert decoded images
+     */
+    public void setCompatible ( boolean compatible ) {
+        this.compatible = compatible;
+    }
+
+    /**
+     * Sets where decoded images are kept between runs of the game.
+     * With a cache, an image is only decoded if its source file has
+     * changed since it was last decoded.
+     *
+     * @param cache The cache to use, or null to always decode images
+     */
+    public void setCache ( ImageCache cache ) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns where decoded images are kept between runs of the game
+     *
+     * @return the image cache, or null if there is none
+     */
+    public ImageCache getCache ( ) {
+        return this.cache;
+    }
+
+    /**
+     * Starts loading the given image in the background.
+     * If an image with the same name has already been declared,
+     * that image is returned instead.
+     *
+     * @param name The name to find the image by
+     * @param source Where to load the image from
+     * @param essential Whether the game needs the image to start
+     * @return The image, once loaded
+     * @throws RejectedExecutionException if the pipeline has been closed
+     */
+    public Future<BufferedImage> declare ( final String name, final URL source, final boolean essential ) {
+        Future<BufferedImage> existing = this.images.get ( name );
+        if ( existing != null )
+            return existing;
+
+        synchronized ( this.images ) {
+            existing = this.images.get ( name );
+            if ( existing != null )
+                return existing;
+
+            this.declared.incrementAndGet ( );
+            if ( essential ) {
+                synchronized ( this.essentialsLock ) {
+                    this.essentials++;
+                }
+            }
+
+            Loading image = new Loading ( essential, new Callable<BufferedImage> ( ) {
+                @Override
+                public BufferedImage call ( ) throws IOException {
+                    try {
+                        return AssetPipeline.this.load ( source );
+                    } catch ( IOException e ) {
+                        System.out.println ( "Could not load image " + name + ": " + e );
+                        AssetPipeline.this.failed.incrementAndGet ( );
+                        throw e;
+                    } catch ( RuntimeException e ) {
+                        System.out.println ( "Could not load image " + name + ": " + e );
+                        AssetPipeline.this.failed.incrementAndGet ( );
+                        throw e;
+                    } finally {
+                        AssetPipeline.this.finished ( essential );
+                    }
+                }
+            } );
+
+            try {
+                this.workers.execute ( image );
+            } catch ( RejectedExecutionException e ) {
+                // Closed, so the image will never be counted as finished
+                this.declared.decrementAndGet ( );
+                if ( essential )
+                    this.essentialLoaded ( );
+                throw e;
+            }
+            this.images.put ( name, image );
+            return image;
+        }
+    }
+
+    /**
+     * Starts loading every image in the given manifest, which maps
+     * image names to their location relative to the given base
+     *
+     * @param manifest The names and locations of the images
+     * @param base What the locations are relative to
+     * @param essential Whether the game needs the images to start
+     * @throws MalformedURLException if a location is not valid
+     */
+    public void declareAll ( Properties manifest, URL base, boolean essential ) throws MalformedURLException {
+        for ( String name : manifest.stringPropertyNames ( ) )
+            this.declare ( name, new URL ( base, manifest.getProperty ( name ).trim ( ) ), essential );
+    }
+
+    /**
+     * An image being loaded, which remembers whether it is essential
+     * so that it can be accounted for if it never gets to run
+     */
+    private static class Loading extends FutureTask<BufferedImage> {
+
+        final boolean essential;
+
+        Loading ( boolean essential, Callable<BufferedImage> load ) {
+            super ( load );
+            this.essential = essential;
+        }
+    }
+
+    /**
+     * Counts an image as finished, whether it loaded or not
+     */
+    private void finished ( boolean essential ) {
+        this.completed.incrementAndGet ( );
+        if ( essential )
+            this.essentialLoaded ( );
+    }
+
+    private void essentialLoaded ( ) {
+        synchronized ( this.essentialsLock ) {
+            this.essentials--;
+            if ( this.essentials == 0 )
+                this.essentialsLock.notifyAll ( );
+        }
+    }
+
+    /**
+     * Returns the image with the given name
+     *
+     * @param name The name of the image
+     * @return The image, once loaded, or null if it was never declared
+     */
+    public Future<BufferedImage> get ( String name ) {
+        return this.images.get ( name );
+    }
+
+    /**
+     * Returns the image with the given name, waiting for it to load if needed
+     *
+     * @param name The name of the image
+     * @return The image, or null if it was never declared or could not be loaded
+     */
+    public BufferedImage getImage ( String name ) {
+        Future<BufferedImage> image = this.images.get ( name );
+        if ( image == null )
+            return null;
+
+        try {
+            return image.get ( );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread ( ).interrupt ( );
+            return null;
+        } catch ( ExecutionException e ) {
+            return null;
+        } catch ( CancellationException e ) {
+            // The pipeline was closed before the image was loaded
+            return null;
+        }
+    }
+
+    /**
+     * Returns true once every essential image has been loaded, or failed to
+     *
+     * @return true if the game can start
+     */
+    public boolean isEssentialsReady ( ) {
+        synchronized ( this.essentialsLock ) {
+            return this.essentials == 0;
+        }
+    }
+
+    /**
+     * Waits for every essential image to be loaded, or fail to
+     *
+     * @param timeout Most milliseconds to wait, or 0 to wait forever
+     * @return true if the essentials are ready
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitEssentials ( long timeout ) throws InterruptedException {
+        long deadline = System.currentTimeMillis ( ) + timeout;
+        synchronized ( this.essentialsLock ) {
+            while ( this.essentials > 0 ) {
+                long wait = timeout == 0 ? 0 : deadline - System.currentTimeMillis ( );
+                if ( timeout != 0 && wait <= 0 )
+                    return false;
+                this.essentialsLock.wait ( wait );
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns how much of what has been declared has finished loading
+     *
+     * @return the fraction of images finished, from 0 to 1
+     */
+    public double getProgress ( ) {
+        int declared = this.declared.get ( );
+        if ( declared == 0 )
+            return 1.0;
+        return (double) this.completed.get ( ) / declared;
+    }
+
+    /**
+     * Returns the number of images declared
+     *
+     * @return the number of images declared
+     */
+    public int getDeclaredCount ( ) {
+        return this.declared.get ( );
+    }
+
+    /**
+     * Returns the number of images that have finished loading, or failed to
+     *
+     * @return the number of images finished
+     */
+    public int getCompletedCount ( ) {
+        return this.completed.get ( );
+    }
+
+    /**
+     * Returns the number of images that could not be loaded
+     *
+     * @return the number of failed images
+     */
+    public int getFailedCount ( ) {
+        return this.failed.get ( );
+    }
+
+    /**
+     * Loads one image, on a worker thread
+     *
+     * @param source Where to load the image from
+     * @return The image
+     * @throws IOException if the image could not be loaded
+     */
+    private BufferedImage load ( URL source ) throws IOException {
+        ImageCache cache = this.cache;
+        if ( cache == null )
+            return this.compatible ( this.decode ( source ) );
+
+        // The source is read once, both to look it up and, if need be, to decode it
+        byte[] contents = read ( source );
+        String key = ImageCache.hash ( contents );
+        try {
+            BufferedImage cached = cache.get ( key );
+            if ( cached != null )
+                return this.compatible ( cached );
+        } catch ( IOException e ) {
+            System.out.println ( "Could not read cached image for " + source + ": " + e );
+        }
+
+        BufferedImage image = this.compatible ( this.decode ( source, contents ) );
+        try {
+            cache.put ( key, image );
+        } catch ( IOException e ) {
+            System.out.println ( "Could not cache image for " + source + ": " + e );
+        }
+        return image;
+    }
+
+    /**
+     * Reads the entire contents of the given source
+     */
+    private static byte[] read ( URL source ) throws IOException {
+        InputStream in = source.openStream ( );
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream ( );
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = in.read ( buffer ) ) >= 0 )
+                out.write ( buffer, 0, n );
+            return out.toByteArray ( );
+        } finally {
+            in.close ( );
+        }
+    }
+
+    private BufferedImage compatible ( BufferedImage image ) {
+        if ( this.compatible && !GraphicsEnvironment.isHeadless ( ) )
+            return toCompatible ( image );
+        return image;
+    }
+
+    /**
+     * Decodes the image at the given location.
+     * Called on a worker thread, with several images decoded at once,
+     * when there is no cache.
+     *
+     * @param source Where to load the image from
+     * @return The decoded image
+     * @throws IOException if the image could not be decoded
+     */
+    protected BufferedImage decode ( URL source ) throws IOException {
+        InputStream in = source.openStream ( );
+        try {
+            return decode ( source, in );
+        } finally {
+            in.close ( );
+        }
+    }
+
+    /**
+     * Decodes the image read from the given location.
+     * Called instead of {@link #decode(URL)} when there is a cache, as the
+     * source has then already been read to look it up, and only for images
+     * not found in the cache. Subclasses overriding decode(URL) should
+     * override this as well.
+     *
+     * @param source Where the image was loaded from
+     * @param contents The contents of the source
+     * @return The decoded image
+     * @throws IOException if the image could not be decoded
+     */
+    protected BufferedImage decode ( URL source, byte[] contents ) throws IOException {
+        return decode ( source, new ByteArrayInputStream ( contents ) );
+    }
+
+    private static BufferedImage decode ( URL source, InputStream in ) throws IOException {
+        // Keep ImageIO from spilling to temporary files, which would serialize the workers on disk
+        BufferedImage image = ImageIO.read ( new MemoryCacheImageInputStream ( in ) );
+        if ( image == null )
+            throw new IOException ( "No decoder for " + source );
+        return image;
+    }
+
+    /**
+     * Copies the given image into one in the format of the screen
+     */
+    private static BufferedImage toCompatible ( BufferedImage image ) {
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment ( ).getDefaultScreenDevice ( ).getDefaultConfiguration ( );
+        if ( image.getColorModel ( ).equals ( gc.getColorModel ( image.getTransparency ( ) ) ) )
+            return image;
+
+        BufferedImage copy = gc.createCompatibleImage ( image.getWidth ( ), image.getHeight ( ), image.getTransparency ( ) );
+        Graphics2D g = copy.createGraphics ( );
+        g.drawImage ( image, 0, 0, null );
+        g.dispose ( );
+        return copy;
+    }
+
+    /**
+     * Stops loading images.
+     * Images that have not finished loading never will, and are
+     * cancelled, so that nothing waits for them forever.
+     */
+    @Override
+    public void close ( ) {
+        // Images that never started never count themselves as finished
+        for ( Runnable r : this.workers.shutdownNow ( ) ) {
+            Loading image = (Loading) r;
+            if ( image.cancel ( false ) )
+                this.finished ( image.essential );
+        }
+    }
+}
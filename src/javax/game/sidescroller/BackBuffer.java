@@ -0,0 +1,225 @@
+package javax.game.sidescroller;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * An off-screen buffer that frames are rendered to before they are put on-screen
+ *
+ * Whenever possible, the buffer is a VolatileImage created from the
+ * GraphicsConfiguration of the component it is drawn to, so that
+ * rendering to it and copying it to the screen can be accelerated.
+ * Since the contents of a VolatileImage may be lost at any time,
+ * rendering should be done like this:
+ *
+ * <pre>
+ * do {
+ *     Graphics2D g = buffer.begin ( );
+ *     // render using g
+ * } while ( buffer.end ( g ) );
+ * </pre>
+ *
+ * If we are headless, the component is not yet displayable, or the
+ * VolatileImage would not be accelerated anyway, a BufferedImage
+ * compatible with the screen is used instead.
+ */
+class BackBuffer {
+
+    private Component owner;
+    private int width, height;
+
+    /**
+     * The buffer, if it is a VolatileImage
+     */
+    private VolatileImage volatileImage;
+
+    /**
+     * The buffer, if we had to fall back to a BufferedImage
+     */
+    private BufferedImage bufferedImage;
+
+    /**
+     * The configuration the buffer was created for
+     */
+    private GraphicsConfiguration configuration;
+
+    /**
+     * Number of times the contents of the buffer was lost
+     */
+    private volatile long contentsLost = 0;
+
+    /**
+     * Creates a new back buffer for the given component.
+     * The image itself is created on the first call to {@link #begin()}.
+     *
+     * @param owner The component the buffer will be drawn to
+     * @param width Width of the buffer
+     * @param height Height of the buffer
+     */
+    public BackBuffer ( Component owner, int width, int height ) {
+        this.owner = owner;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Makes sure the buffer is valid, and returns a new graphics
+     * context for rendering to it
+     *
+     * @return A graphics context for the buffer
+     */
+    public Graphics2D begin ( ) {
+        GraphicsConfiguration gc = GraphicsEnvironment.isHeadless ( ) ? null : this.owner.getGraphicsConfiguration ( );
+
+        // The component may have moved to another screen
+        if ( gc != this.configuration ) {
+            this.release ( );
+            this.configuration = gc;
+        }
+
+        if ( this.volatileImage == null && this.bufferedImage == null )
+            this.create ( );
+
+        if ( this.volatileImage != null ) {
+            int status = this.volatileImage.validate ( this.configuration );
+            if ( status == VolatileImage.IMAGE_INCOMPATIBLE ) {
+                this.release ( );
+                this.create ( );
+            } else if ( status == VolatileImage.IMAGE_RESTORED ) {
+                this.contentsLost++;
+            }
+        }
+
+        return (Graphics2D) this.getImage ( ).getGraphics ( );
+    }
+
+    /**
+     * Finishes rendering to the buffer
+     *
+     * @param g The graphics context returned by {@link #begin()}
+     * @return true if the contents were lost during rendering, and the frame should be rendered again
+     */
+    public boolean end ( Graphics g ) {
+        g.dispose ( );
+
+        if ( this.volatileImage != null && this.volatileImage.contentsLost ( ) ) {
+            this.contentsLost++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Draws the buffer using the given graphics context
+     *
+     * If the frame was rendered at less than full resolution, only the
+     * top-left part of the buffer that it covers is drawn, scaled up to
+     * the full size of the buffer.
+     *
+     * @param g The graphics context to draw with
+     * @param scale Fraction of the full resolution the frame was rendered at
+     * @return true if the contents were lost while drawing, and the frame should be rendered again
+     */
+    public boolean drawTo ( Graphics g, double scale ) {
+        Image image = this.getImage ( );
+        if ( image == null )
+            return false;
+
+        if ( scale >= 1.0 ) {
+            g.drawImage ( image, 0, 0, null );
+        } else {
+            int w = (int) Math.ceil ( this.width * scale );
+            int h = (int) Math.ceil ( this.height * scale );
+            if ( g instanceof Graphics2D )
+                ( (Graphics2D) g ).setRenderingHint ( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+            g.drawImage ( image, 0, 0, this.width, this.height, 0, 0, w, h, null );
+        }
+
+        if ( this.volatileImage != null && this.volatileImage.contentsLost ( ) ) {
+            this.contentsLost++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Draws the given region of the buffer, at the same place on the screen,
+     * using the given graphics context
+     *
+     * @param g The graphics context to draw with
+     * @param r The region of the buffer to draw
+     * @return true if the contents were lost while drawing, and the frame should be rendered again
+     */
+    public boolean drawTo ( Graphics g, Rectangle r ) {
+        Image image = this.getImage ( );
+        if ( image == null )
+            return false;
+
+        g.drawImage ( image, r.x, r.y, r.x + r.width, r.y + r.height, r.x, r.y, r.x + r.width, r.y + r.height, null );
+
+        if ( this.volatileImage != null && this.volatileImage.contentsLost ( ) ) {
+            this.contentsLost++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of times the contents of the buffer was lost
+     * and had to be rendered again
+     *
+     * @return the number of times the contents of the buffer was lost
+     */
+    public long getContentsLost ( ) {
+        return this.contentsLost;
+    }
+
+    /**
+     * Returns true if the buffer is a VolatileImage
+     *
+     * @return true if the buffer is a VolatileImage
+     */
+    public boolean isVolatile ( ) {
+        return this.volatileImage != null;
+    }
+
+    private Image getImage ( ) {
+        return this.volatileImage != null ? this.volatileImage : this.bufferedImage;
+    }
+
+    private void create ( ) {
+        if ( this.configuration == null ) {
+            this.bufferedImage = new BufferedImage ( this.width, this.height, BufferedImage.TYPE_INT_RGB );
+            return;
+        }
+
+        try {
+            VolatileImage image = this.configuration.createCompatibleVolatileImage ( this.width, this.height );
+            if ( image.getCapabilities ( ).isAccelerated ( ) ) {
+                this.volatileImage = image;
+                return;
+            }
+            // Software pipeline, so a managed image is just as good
+            image.flush ( );
+        } catch ( RuntimeException e ) {
+            System.out.println ( "Could not create volatile back buffer: " + e );
+        }
+
+        this.bufferedImage = this.configuration.createCompatibleImage ( this.width, this.height );
+    }
+
+    private void release ( ) {
+        if ( this.volatileImage != null )
+            this.volatileImage.flush ( );
+        this.volatileImage = null;
+        this.bufferedImage = null;
+    }
+}
@@ -0,0 +1,144 @@
+package javax.game.sidescroller;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The regions of the screen that have changed since the last frame
+ *
+ * Overlapping regions are merged as they are added, and once there are
+ * too many of them, they are all merged into their bounding box, so that
+ * repainting them never takes more than a handful of clipped passes.
+ * All coordinates are relative to the top-left corner of the screen.
+ *
+ * @see GamePanel#setDirtyRendering(boolean)
+ */
+public class DirtyRegions {
+
+    /**
+     * Never keep more than this many separate regions
+     */
+    private static final int MAX_REGIONS = 8;
+
+    private Rectangle bounds;
+    private List<Rectangle> regions;
+
+    /**
+     * Whether everything should be repainted
+     */
+    private boolean all = true;
+
+    /**
+     * Creates a new set of dirty regions within a screen of the given size.
+     * Initially, the whole screen is dirty.
+     *
+     * @param width Width of the screen
+     * @param height Height of the screen
+     */
+    public DirtyRegions ( int width, int height ) {
+        this.bounds = new Rectangle ( 0, 0, width, height );
+        this.regions = new ArrayList<Rectangle> ( );
+    }
+
+    /**
+     * Marks the given region as dirty
+     *
+     * @param x Left edge of the region
+     * @param y Top edge of the region
+     * @param width Width of the region
+     * @param height Height of the region
+     */
+    public synchronized void add ( int x, int y, int width, int height ) {
+        if ( this.all )
+            return;
+
+        Rectangle r = new Rectangle ( x, y, width, height ).intersection ( this.bounds );
+        if ( r.isEmpty ( ) )
+            return;
+
+        for ( int i = 0; i < this.regions.size ( ); i++ ) {
+            Rectangle other = this.regions.get ( i );
+            if ( other.intersects ( r ) || other.contains ( r ) ) {
+                r.add ( other );
+                this.regions.remove ( i-- );
+            }
+        }
+        this.regions.add ( r );
+
+        if ( this.regions.size ( ) > MAX_REGIONS ) {
+            Rectangle union = new Rectangle ( this.regions.get ( 0 ) );
+            for ( Rectangle other : this.regions )
+                union.add ( other );
+            this.regions.clear ( );
+            this.regions.add ( union );
+        }
+    }
+
+    /**
+     * Marks the given region as dirty
+     *
+     * @param r The region that changed
+     */
+    public void add ( Rectangle r ) {
+        this.add ( r.x, r.y, r.width, r.height );
+    }
+
+    /**
+     * Marks the entire screen as dirty
+     */
+    public synchronized void addAll ( ) {
+        this.all = true;
+        this.regions.clear ( );
+    }
+
+    /**
+     * Returns true if the entire screen should be repainted
+     *
+     * @return true if the entire screen is dirty
+     */
+    public synchronized boolean isAll ( ) {
+        return this.all;
+    }
+
+    /**
+     * Returns true if nothing needs to be repainted
+     *
+     * @return true if nothing is dirty
+     */
+    public synchronized boolean isEmpty ( ) {
+        return !this.all && this.regions.isEmpty ( );
+    }
+
+    /**
+     * Returns a copy of the dirty regions
+     *
+     * @return the dirty regions
+     */
+    public synchronized Rectangle[] getRegions ( ) {
+        if ( this.all )
+            return new Rectangle[] { new Rectangle ( this.bounds ) };
+        return this.regions.toArray ( new Rectangle[this.regions.size ( )] );
+    }
+
+    /**
+     * Returns the dirty regions and marks everything as repainted, at once,
+     * so that regions added from other threads in between are never lost
+     *
+     * @return the dirty regions, none if nothing is dirty, or null if the entire screen is
+     */
+    public synchronized Rectangle[] drain ( ) {
+        Rectangle[] regions = this.all ? null : this.regions.toArray ( new Rectangle[this.regions.size ( )] );
+        this.all = false;
+        this.regions.clear ( );
+        return regions;
+    }
+
+    /**
+     * Marks everything as repainted
+     */
+    public synchronized void clear ( ) {
+        this.all = false;
+        this.regions.clear ( );
+    }
+}
@@ -0,0 +1,140 @@
+package javax.game.sidescroller;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records how long each {@link Phase} of the game loop takes
+ *
+ * Every Simulation has one of these, which it shares with its
+ * SpriteManager and GamePanel. Timings are kept in lock-free
+ * histograms, so they can be read from any thread while the game
+ * is running, either through {@link #getHistogram(Phase)} or
+ * through JMX once {@link #register(String)} has been called.
+ */
+public class FrameMetrics implements FrameMetricsMXBean {
+
+    private final Histogram[] phases;
+
+    private final AtomicLong renderedFrames = new AtomicLong ( );
+    private final AtomicLong skippedFrames = new AtomicLong ( );
+
+    /**
+     * The name we are registered with JMX under, if any
+     */
+    private ObjectName name;
+
+    public FrameMetrics ( ) {
+        this.phases = new Histogram[Phase.values ( ).length];
+        for ( int i = 0; i < this.phases.length; i++ )
+            this.phases[i] = new Histogram ( );
+    }
+
+    /**
+     * Records that the given phase took the given number of nanoseconds
+     *
+     * @param phase The phase that was timed
+     * @param nanos How long it took
+     */
+    public void record ( Phase phase, long nanos ) {
+        this.phases[phase.ordinal ( )].record ( nanos );
+    }
+
+    /**
+     * Records that the given phase started at the given time and just finished
+     *
+     * @param phase The phase that was timed
+     * @param start When the phase started, as given by System.nanoTime
+     * @return The current System.nanoTime, for timing the next phase
+     */
+    public long recordSince ( Phase phase, long start ) {
+        long now = System.nanoTime ( );
+        this.record ( phase, now - start );
+        return now;
+    }
+
+    /**
+     * Counts a frame that was rendered
+     */
+    public void frameRendered ( ) {
+        this.renderedFrames.incrementAndGet ( );
+    }
+
+    /**
+     * Counts a frame that was skipped to let the game catch up
+     */
+    public void frameSkipped ( ) {
+        this.skippedFrames.incrementAndGet ( );
+    }
+
+    @Override
+    public long getRenderedFrames ( ) {
+        return this.renderedFrames.get ( );
+    }
+
+    @Override
+    public long getSkippedFrames ( ) {
+        return this.skippedFrames.get ( );
+    }
+
+    /**
+     * Returns the histogram of timings for the given phase
+     *
+     * @param phase The phase to get timings for
+     * @return the histogram of timings for the given phase
+     */
+    public Histogram getHistogram ( Phase phase ) {
+        return this.phases[phase.ordinal ( )];
+    }
+
+    @Override
+    public PhaseStatistics[] getPhases ( ) {
+        Phase[] all = Phase.values ( );
+        PhaseStatistics[] statistics = new PhaseStatistics[all.length];
+        for ( int i = 0; i < all.length; i++ )
+            statistics[i] = new PhaseStatistics ( all[i], this.phases[i] );
+        return statistics;
+    }
+
+    @Override
+    public void reset ( ) {
+        for ( Histogram h : this.phases )
+            h.reset ( );
+        this.renderedFrames.set ( 0 );
+        this.skippedFrames.set ( 0 );
+    }
+
+    /**
+     * Exposes these metrics through the platform MBean server
+     *
+     * @param game A name identifying the game, unique within this JVM
+     * @throws JMException if the metrics could not be registered
+     */
+    public synchronized void register ( String game ) throws JMException {
+        this.unregister ( );
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer ( );
+        ObjectName name = new ObjectName ( "javax.game.sidescroller:type=FrameMetrics,name=" + ObjectName.quote ( game ) );
+        server.registerMBean ( this, name );
+        this.name = name;
+    }
+
+    /**
+     * Stops exposing these metrics through JMX
+     */
+    public synchronized void unregister ( ) {
+        if ( this.name == null )
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer ( ).unregisterMBean ( this.name );
+        } catch ( JMException e ) {
+            System.out.println ( "Could not unregister frame metrics: " + e );
+        }
+        this.name = null;
+    }
+}
@@ -0,0 +1,32 @@
+package javax.game.sidescroller;
+
+/**
+ * Management interface exposing {@link FrameMetrics} through JMX
+ */
+public interface FrameMetricsMXBean {
+    /**
+     * Returns a summary of the timings of each phase
+     *
+     * @return a summary of the timings of each phase
+     */
+    public PhaseStatistics[] getPhases ( );
+
+    /**
+     * Returns the number of frames rendered
+     *
+     * @return the number of frames rendered
+     */
+    public long getRenderedFrames ( );
+
+    /**
+     * Returns the number of frames skipped to let the game catch up
+     *
+     * @return the number of frames skipped
+     */
+    public long getSkippedFrames ( );
+
+    /**
+     * Forgets all recorded timings and counts
+     */
+    public void reset ( );
+}
@@ -0,0 +1,125 @@
+package javax.game.sidescroller;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for evenly spaced deadlines measured using System.nanoTime
+ *
+ * Thread.sleep and javax.swing.Timer only have millisecond resolution,
+ * and may oversleep by a millisecond or more, so a loop sleeping for
+ * 1000 / 60 ms ends up alternating between 16 and 17 ms frames. Instead,
+ * the pacer parks the thread until shortly before the deadline, and
+ * spins for the last part of the wait, which the scheduler cannot make
+ * us miss.
+ *
+ * Deadlines are spaced exactly one interval apart from when the pacer
+ * was reset, rather than one interval from when the previous wait ended,
+ * so errors do not add up over time. If a deadline is missed by more
+ * than an interval, the missed frames are dropped and the pacer starts
+ * counting from the current time instead.
+ */
+public class FramePacer {
+
+    /**
+     * By default, spin for the last 1.5 ms before each deadline
+     */
+    public static final long DEFAULT_SPIN = 1500000L;
+
+    private long interval;
+    private long spin;
+
+    /**
+     * The next deadline, as given by System.nanoTime
+     */
+    private long deadline;
+
+    /**
+     * Records how late each deadline was met, may be null
+     */
+    private Histogram jitter;
+
+    /**
+     * Creates a new pacer waiting for deadlines the given number of nanoseconds apart
+     *
+     * @param interval Nanoseconds between each deadline
+     */
+    public FramePacer ( long interval ) {
+        this ( interval, DEFAULT_SPIN, null );
+    }
+
+    /**
+     * Creates a new pacer waiting for deadlines the given number of nanoseconds apart
+     *
+     * @param interval Nanoseconds between each deadline
+     * @param spin Nanoseconds before each deadline to stop parking and start spinning
+     * @param jitter Histogram to record how late each deadline was met in, or null
+     */
+    public FramePacer ( long interval, long spin, Histogram jitter ) {
+        this.interval = interval;
+        this.spin = spin;
+        this.jitter = jitter;
+        this.reset ( );
+    }
+
+    /**
+     * Makes the next deadline one interval from now
+     */
+    public void reset ( ) {
+        this.deadline = System.nanoTime ( ) + this.interval;
+    }
+
+    /**
+     * Waits until the next deadline.
+     * Returns straight away if the thread is interrupted, clearing the interrupt.
+     *
+     * @return How many nanoseconds after the deadline we returned
+     */
+    public long await ( ) {
+        long deadline = this.deadline;
+        long now = System.nanoTime ( );
+
+        while ( now < deadline ) {
+            long remaining = deadline - now;
+            if ( remaining > this.spin )
+                LockSupport.parkNanos ( remaining - this.spin );
+            else
+                Thread.onSpinWait ( );
+
+            if ( Thread.interrupted ( ) ) {
+                this.reset ( );
+                return 0;
+            }
+            now = System.nanoTime ( );
+        }
+
+        long late = now - deadline;
+        if ( this.jitter != null )
+            this.jitter.record ( late );
+
+        if ( late > this.interval ) {
+            // We're behind, so don't try to make up for lost frames
+            this.deadline = now + this.interval;
+        } else {
+            this.deadline = deadline + this.interval;
+        }
+        return late;
+    }
+
+    /**
+     * Returns the next deadline
+     *
+     * @return the next deadline, as given by System.nanoTime
+     */
+    public long getDeadline ( ) {
+        return this.deadline;
+    }
+
+    /**
+     * Returns the number of nanoseconds between each deadline
+     *
+     * @return the number of nanoseconds between each deadline
+     */
+    public long getInterval ( ) {
+        return this.interval;
+    }
+}
@@ -0,0 +1,26 @@
+package javax.game.sidescroller;
+
+/**
+ * Decides whether a frame should be rendered, or skipped
+ * to let the game state catch up when the system is loaded
+ *
+ * @see AdaptiveFrameSkipPolicy
+ */
+public interface FrameSkipPolicy {
+    /**
+     * Called before every frame to decide whether it should be rendered
+     *
+     * @param lateness How many nanoseconds later than scheduled the frame is
+     * @param budget How many nanoseconds there are between frames
+     * @param skipped How many frames have been skipped in a row before this one
+     * @return true if the frame should be rendered, false if it should be skipped
+     */
+    public boolean shouldRender ( long lateness, long budget, int skipped );
+
+    /**
+     * Called after a frame has been rendered and put on-screen
+     *
+     * @param nanos How many nanoseconds it took
+     */
+    public void rendered ( long nanos );
+}
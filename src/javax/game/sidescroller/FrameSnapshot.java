@@ -0,0 +1,233 @@
+package javax.game.sidescroller;
+
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything needed to render one tick of the game without
+ * touching the live game state.
+ *
+ * Used by {@link LoopMode#PIPELINED} to let the render thread
+ * draw one tick while the simulation thread computes the next.
+ * Snapshots are filled in by the simulation thread, handed over
+ * through a {@link TripleBuffer}, and never modified while the
+ * render thread holds them.
+ */
+class FrameSnapshot {
+
+    /**
+     * When this snapshot was taken, as given by System.nanoTime
+     */
+    private long time;
+
+    private boolean paused;
+
+    /**
+     * The camera position before and after the tick
+     */
+    private int previousX, previousY, x, y;
+    private int width, height;
+
+    /**
+     * Additional cameras, and their positions before and after the tick
+     */
+    private int viewports = 0;
+    private Viewport[] viewport = new Viewport[0];
+    private int[] viewportPreviousX = new int[0];
+    private int[] viewportPreviousY = new int[0];
+    private int[] viewportX = new int[0];
+    private int[] viewportY = new int[0];
+
+    /**
+     * Sprite positions before and after the tick,
+     * and the image to draw for each of them
+     */
+    private int sprites = 0;
+    private int[] spritePreviousX = new int[16];
+    private int[] spritePreviousY = new int[16];
+    private int[] spriteX = new int[16];
+    private int[] spriteY = new int[16];
+    private BufferedImage[] spriteImages = new BufferedImage[16];
+
+    /**
+     * Overwrites this snapshot with the current state of the game
+     *
+     * @param previous The map position before the last tick
+     * @param current The map position after the last tick
+     * @param width The width of the visible part of the map
+     * @param height The height of the visible part of the map
+     * @param viewports Additional cameras to capture
+     * @param sprites The sprites to capture, may be null
+     * @param paused Whether the game is paused
+     */
+    void capture ( Point previous, Point current, int width, int height, List<Viewport> viewports, SpriteManager sprites, boolean paused ) {
+        this.time = System.nanoTime ( );
+        this.paused = paused;
+        this.previousX = previous.x;
+        this.previousY = previous.y;
+        this.x = current.x;
+        this.y = current.y;
+        this.width = width;
+        this.height = height;
+
+        this.viewports = 0;
+        for ( Viewport v : viewports ) {
+            if ( this.viewports == this.viewport.length ) {
+                int size = this.viewports + 1;
+                this.viewport = Arrays.copyOf ( this.viewport, size );
+                this.viewportPreviousX = Arrays.copyOf ( this.viewportPreviousX, size );
+                this.viewportPreviousY = Arrays.copyOf ( this.viewportPreviousY, size );
+                this.viewportX = Arrays.copyOf ( this.viewportX, size );
+                this.viewportY = Arrays.copyOf ( this.viewportY, size );
+            }
+
+            int i = this.viewports++;
+            this.viewport[i] = v;
+            this.viewportPreviousX[i] = v.getPreviousPosition ( ).x;
+            this.viewportPreviousY[i] = v.getPreviousPosition ( ).y;
+            this.viewportX[i] = v.getPosition ( ).x;
+            this.viewportY[i] = v.getPosition ( ).y;
+        }
+        for ( int i = this.viewports; i < this.viewport.length; i++ )
+            this.viewport[i] = null;
+
+        this.sprites = 0;
+        if ( sprites != null )
+            sprites.capture ( this );
+
+        // Don't keep images of removed sprites alive
+        for ( int i = this.sprites; i < this.spriteImages.length && this.spriteImages[i] != null; i++ )
+            this.spriteImages[i] = null;
+    }
+
+    /**
+     * Adds the given sprite to this snapshot.
+     * Called by the SpriteManager during {@link #capture}.
+     *
+     * @param s The sprite to add
+     */
+    void addSprite ( Sprite s ) {
+        BufferedImage image = s.snapshotImage ( );
+        if ( image == null )
+            return;
+
+        if ( this.sprites == this.spriteX.length )
+            this.grow ( );
+
+        Point previous = s.getPreviousPosition ( );
+        int i = this.sprites++;
+        this.spriteX[i] = s.position.x;
+        this.spriteY[i] = s.position.y;
+        this.spritePreviousX[i] = previous == null ? s.position.x : previous.x;
+        this.spritePreviousY[i] = previous == null ? s.position.y : previous.y;
+        this.spriteImages[i] = image;
+    }
+
+    private void grow ( ) {
+        int size = this.spriteX.length * 2;
+        this.spritePreviousX = Arrays.copyOf ( this.spritePreviousX, size );
+        this.spritePreviousY = Arrays.copyOf ( this.spritePreviousY, size );
+        this.spriteX = Arrays.copyOf ( this.spriteX, size );
+        this.spriteY = Arrays.copyOf ( this.spriteY, size );
+        this.spriteImages = Arrays.copyOf ( this.spriteImages, size );
+    }
+
+    /**
+     * Returns true if the game was paused when this snapshot was taken
+     *
+     * @return true if the game was paused
+     */
+    boolean isPaused ( ) {
+        return this.paused;
+    }
+
+    /**
+     * Returns how far we have come from this snapshot towards the
+     * next one, given that ticks are tickInterval nanoseconds apart
+     *
+     * @param tickInterval Nanoseconds between each tick
+     * @return A value between 0 and 1
+     */
+    double getAlpha ( long tickInterval ) {
+        if ( this.paused )
+            return 1.0;
+
+        double alpha = (double) ( System.nanoTime ( ) - this.time ) / tickInterval;
+        return Math.max ( 0.0, Math.min ( 1.0, alpha ) );
+    }
+
+    /**
+     * Moves the given context to the visible part of the map alpha
+     * of the way between the camera positions before and after the tick
+     *
+     * @param alpha How far we are between the tick before (0) and this one (1)
+     * @param context The context to move
+     */
+    void getFrame ( double alpha, RenderContext context ) {
+        context.set ( lerp ( this.previousX, this.x, alpha ), lerp ( this.previousY, this.y, alpha ), this.width, this.height, alpha );
+    }
+
+    /**
+     * Returns the number of captured viewports
+     *
+     * @return the number of captured viewports
+     */
+    int getViewportCount ( ) {
+        return this.viewports;
+    }
+
+    /**
+     * Returns the given captured viewport
+     *
+     * @param i Which viewport to return
+     * @return the viewport
+     */
+    Viewport getViewport ( int i ) {
+        return this.viewport[i];
+    }
+
+    /**
+     * Returns the part of the map shown by the given viewport alpha of the
+     * way between its camera positions before and after the tick
+     *
+     * @param i Which viewport to return the frame of
+     * @param alpha How far we are between the tick before (0) and this one (1)
+     * @param into The rectangle to move to the visible part of the map
+     */
+    void getViewportFrame ( int i, double alpha, Rectangle into ) {
+        Rectangle bounds = this.viewport[i].getBounds ( );
+        into.setBounds ( lerp ( this.viewportPreviousX[i], this.viewportX[i], alpha ), lerp ( this.viewportPreviousY[i], this.viewportY[i], alpha ), bounds.width, bounds.height );
+    }
+
+    /**
+     * Draws all the captured sprites that are visible in the given frame.
+     * Sprites are drawn from the image captured for them, not through
+     * their draw methods, which the simulation thread may race with.
+     *
+     * @param g Graphics context
+     * @param frame The visible part of the map
+     * @param alpha How far we are between the tick before (0) and this one (1)
+     */
+    void drawSprites ( Graphics g, Rectangle frame, double alpha ) {
+        for ( int i = 0; i < this.sprites; i++ ) {
+            BufferedImage image = this.spriteImages[i];
+            int x = lerp ( this.spritePreviousX[i], this.spriteX[i], alpha ) - frame.x;
+            int y = lerp ( this.spritePreviousY[i], this.spriteY[i], alpha ) - frame.y;
+
+            if ( x >= frame.width || y >= frame.height || x + image.getWidth ( ) <= 0 || y + image.getHeight ( ) <= 0 )
+                continue;
+
+            g.drawImage ( image, x, y, null );
+        }
+    }
+
+    private static int lerp ( int from, int to, double alpha ) {
+        if ( alpha >= 1.0 )
+            return to;
+        return from + (int) Math.round ( ( to - from ) * alpha );
+    }
+}
@@ -19,6 +19,9 @@ public abstract class GameBase extends JFrame implements WindowListener {
         this.addWindowListener ( this );
         this.setSize ( this.game.getSize ( ) );
         this.setResizable ( false );
+        // Frames are flipped to the screen by the game loop
+        if ( this.game.usesBufferStrategy ( ) )
+            this.setIgnoreRepaint ( true );
         this.setVisible ( true );
         this.setLocationRelativeTo ( null );
         
@@ -35,6 +38,7 @@ public abstract class GameBase extends JFrame implements WindowListener {
 
     public void windowDeiconified ( WindowEvent e ) {
         //this.game.resume ( );
+        this.game.wake ( );
     }
 
     public void windowIconified ( WindowEvent e ) {
@@ -0,0 +1,105 @@
+package javax.game.sidescroller;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted by the game loop
+ *
+ * These let frame spikes seen in JDK Mission Control be matched up with
+ * garbage collection, allocation and other JVM activity. Events are only
+ * timed and committed while a recording with them enabled is running,
+ * and otherwise cost next to nothing, so they are always compiled in.
+ */
+final class GameEvents {
+
+    private GameEvents ( ) {
+    }
+
+    @Name ( "javax.game.Frame" )
+    @Label ( "Frame" )
+    @Category ( { "Game", "Loop" } )
+    @Description ( "Rendering a frame and putting it on-screen" )
+    @StackTrace ( false )
+    static final class FrameEvent extends Event {
+        @Label ( "Tick" )
+        @Description ( "Number of ticks run before this frame" )
+        long tick;
+
+        @Label ( "Interpolation" )
+        double alpha;
+
+        @Label ( "From Snapshot" )
+        @Description ( "Whether the frame was rendered from a snapshot by the render thread" )
+        boolean snapshot;
+    }
+
+    @Name ( "javax.game.Tick" )
+    @Label ( "Tick" )
+    @Category ( { "Game", "Loop" } )
+    @Description ( "Running one game tick" )
+    @StackTrace ( false )
+    static final class TickEvent extends Event {
+        @Label ( "Tick" )
+        long tick;
+
+        @Label ( "Sprite Count" )
+        int sprites;
+    }
+
+    @Name ( "javax.game.CollisionPass" )
+    @Label ( "Collision Pass" )
+    @Category ( { "Game", "Sprites" } )
+    @Description ( "Detecting sprites leaving the world and colliding with each other" )
+    @StackTrace ( false )
+    static final class CollisionEvent extends Event {
+        @Label ( "Sprite Count" )
+        int sprites;
+
+        @Label ( "Candidate Pairs" )
+        @Description ( "Number of sprite pairs tested for collision" )
+        long candidatePairs;
+
+        @Label ( "Collisions" )
+        int collisions;
+
+        @Label ( "Removed Sprites" )
+        int removed;
+    }
+
+    @Name ( "javax.game.RibbonRender" )
+    @Label ( "Ribbon Render" )
+    @Category ( { "Game", "Rendering" } )
+    @Description ( "Drawing one ribbon layer" )
+    @StackTrace ( false )
+    static final class RibbonEvent extends Event {
+        @Label ( "Width" )
+        int width;
+
+        @Label ( "Height" )
+        int height;
+
+        @Label ( "Pieces" )
+        @Description ( "Number of wrapped pieces of the ribbon image drawn" )
+        int pieces;
+    }
+
+    @Name ( "javax.game.SkippedFrame" )
+    @Label ( "Skipped Frame" )
+    @Category ( { "Game", "Loop" } )
+    @Description ( "A frame was not rendered to let the game catch up" )
+    @StackTrace ( false )
+    static final class SkippedFrameEvent extends Event {
+        @Label ( "Streak" )
+        @Description ( "Number of frames skipped in a row, including this one" )
+        int streak;
+
+        @Label ( "Lateness" )
+        @Description ( "How many milliseconds late the frame was" )
+        long lateMillis;
+    }
+}
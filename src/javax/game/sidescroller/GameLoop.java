@@ -0,0 +1,277 @@
+package javax.game.sidescroller;
+
+/**
+ * A fixed-timestep game loop running on its own thread
+ *
+ * Game ticks are run at a constant rate measured using System.nanoTime,
+ * no matter how long rendering takes, and frames are started at exact
+ * deadlines using a {@link FramePacer}. If rendering falls behind, up to
+ * maxCatchUpTicks ticks are run back-to-back before the next frame is
+ * rendered, and any lag beyond that is dropped so that the game slows
+ * down rather than spiraling.
+ *
+ * Every frame is given an interpolation factor between 0 and 1 saying
+ * how far we have come from the last tick towards the next one, which
+ * can be used to draw moving objects smoothly between tick positions.
+ *
+ * The loop is not tied to a GamePanel, and can be used to run a
+ * {@link Simulation} at a fixed rate without rendering anything.
+ */
+public abstract class GameLoop implements Runnable {
+
+    /**
+     * Nanoseconds between each game tick
+     */
+    private long tickInterval;
+
+    /**
+     * Nanoseconds between each rendered frame
+     */
+    private long frameInterval;
+
+    /**
+     * Never run more than this many ticks before rendering a frame
+     */
+    private int maxCatchUpTicks;
+
+    /**
+     * Records how late each frame was started, may be null
+     */
+    private Histogram jitter;
+
+    /**
+     * Game ticks run per tickInterval of real time
+     */
+    private volatile double timeScale = 1.0;
+
+    /**
+     * When running faster than real time, stop running ticks
+     * for a frame once they have taken this many nanoseconds
+     */
+    private volatile long tickBudget;
+
+    private volatile boolean running = false;
+    private Thread thread;
+
+    /**
+     * While idle, the loop waits for {@link #wake()} between frames,
+     * or for idleRefresh milliseconds if that is not 0
+     */
+    private final Object idleLock = new Object ( );
+    private volatile boolean idle = false;
+    private long idleRefresh = 0;
+
+    /**
+     * Creates a new game loop
+     *
+     * @param tickInterval Nanoseconds between each game tick
+     * @param frameInterval Nanoseconds between each rendered frame
+     * @param maxCatchUpTicks Maximum number of ticks to run between two frames
+     */
+    public GameLoop ( long tickInterval, long frameInterval, int maxCatchUpTicks ) {
+        this ( tickInterval, frameInterval, maxCatchUpTicks, null );
+    }
+
+    /**
+     * Creates a new game loop recording how late each frame is started
+     *
+     * @param tickInterval Nanoseconds between each game tick
+     * @param frameInterval Nanoseconds between each rendered frame
+     * @param maxCatchUpTicks Maximum number of ticks to run between two frames
+     * @param jitter Histogram to record how late each frame is started in, or null
+     * @see FramePacer
+     */
+    public GameLoop ( long tickInterval, long frameInterval, int maxCatchUpTicks, Histogram jitter ) {
+        this.tickInterval = tickInterval;
+        this.frameInterval = frameInterval;
+        this.maxCatchUpTicks = Math.max ( 1, maxCatchUpTicks );
+        this.jitter = jitter;
+        this.tickBudget = frameInterval / 2;
+    }
+
+    /**
+     * Makes the game run faster or slower than real time.
+     * 
+     * At 2.0, ticks are run twice as often, and at 0.5 half as often,
+     * while frames are still rendered at the same rate. When running
+     * faster than real time, ticks may be dropped to stay within the
+     * tick budget, and the game then runs slower than asked.
+     *
+     * @param scale Game ticks to run per tick interval of real time
+     * @see #setTickBudget(long)
+     */
+    public void setTimeScale ( double scale ) {
+        if ( !( scale > 0 ) )
+            throw new IllegalArgumentException ( "Time scale must be positive, not " + scale );
+        this.timeScale = scale;
+    }
+
+    /**
+     * Returns how many game ticks are run per tick interval of real time
+     *
+     * @return the time scale
+     */
+    public double getTimeScale ( ) {
+        return this.timeScale;
+    }
+
+    /**
+     * Sets how much time ticks may take between two frames when running
+     * faster than real time. Defaults to half the frame interval.
+     *
+     * @param nanos Nanoseconds ticks may take between two frames
+     */
+    public void setTickBudget ( long nanos ) {
+        this.tickBudget = nanos;
+    }
+
+    /**
+     * Called once for every game tick
+     */
+    protected abstract void tick ( );
+
+    /**
+     * Called once for every frame that should be rendered
+     *
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    protected abstract void frame ( double alpha );
+
+    /**
+     * Starts the loop on a new thread
+     *
+     * @param name The name of the loop thread
+     */
+    public void start ( String name ) {
+        if ( this.running )
+            return;
+
+        this.running = true;
+        this.thread = new Thread ( this, name );
+        this.thread.start ( );
+    }
+
+    /**
+     * Stops the loop, and waits for the current frame to finish
+     * unless called from the loop thread itself.
+     */
+    public void stop ( ) {
+        this.running = false;
+
+        Thread t = this.thread;
+        if ( t == null || t == Thread.currentThread ( ) )
+            return;
+
+        t.interrupt ( );
+        try {
+            t.join ( 1000 );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread ( ).interrupt ( );
+        }
+    }
+
+    /**
+     * Makes the loop stop running ticks and frames after the current frame
+     * until {@link #wake()} is called, except for one tick and one frame
+     * every refresh milliseconds, if refresh is not 0.
+     * The time spent idle is not made up for when woken.
+     *
+     * @param refresh Milliseconds between each frame while idle, or 0 for none
+     */
+    public void idle ( long refresh ) {
+        synchronized ( this.idleLock ) {
+            this.idleRefresh = refresh;
+            this.idle = true;
+        }
+    }
+
+    /**
+     * Makes an idle loop continue running as normal
+     */
+    public void wake ( ) {
+        synchronized ( this.idleLock ) {
+            this.idle = false;
+            this.idleLock.notifyAll ( );
+        }
+    }
+
+    /**
+     * Returns true if the loop is idle
+     *
+     * @return true if the loop is idle
+     */
+    public boolean isIdle ( ) {
+        return this.idle;
+    }
+
+    /**
+     * Returns true if the loop is currently running
+     *
+     * @return true if the loop is currently running
+     */
+    public boolean isRunning ( ) {
+        return this.running;
+    }
+
+    @Override
+    public void run ( ) {
+        FramePacer pacer = new FramePacer ( this.frameInterval, FramePacer.DEFAULT_SPIN, this.jitter );
+        long previous = System.nanoTime ( );
+        long lag = 0;
+
+        while ( this.running ) {
+            long now = System.nanoTime ( );
+            double scale = this.timeScale;
+            lag += scale == 1.0 ? now - previous : (long) ( ( now - previous ) * scale );
+            previous = now;
+
+            int ticks = 0;
+            int maxTicks = scale > 1.0 ? (int) Math.ceil ( this.maxCatchUpTicks * scale ) : this.maxCatchUpTicks;
+            while ( lag >= this.tickInterval && ticks < maxTicks ) {
+                this.tick ( );
+                lag -= this.tickInterval;
+                ticks++;
+
+                // Fast-forwarding must not starve rendering
+                if ( scale > 1.0 && System.nanoTime ( ) - now > this.tickBudget )
+                    break;
+            }
+
+            // Too far behind to catch up, so drop the remaining ticks
+            if ( lag >= this.tickInterval )
+                lag %= this.tickInterval;
+
+            this.frame ( (double) lag / this.tickInterval );
+
+            // stop() interrupts us, and running will be false
+            pacer.await ( );
+
+            if ( this.idle && this.waitWhileIdle ( ) ) {
+                previous = System.nanoTime ( );
+                pacer.reset ( );
+
+                // Still idle, so this is a refresh, which runs exactly one tick
+                lag = this.idle ? this.tickInterval : 0;
+            }
+        }
+    }
+
+    /**
+     * Waits until woken or it is time for the next idle refresh
+     *
+     * @return true if we waited
+     */
+    private boolean waitWhileIdle ( ) {
+        synchronized ( this.idleLock ) {
+            if ( !this.idle || !this.running )
+                return false;
+
+            try {
+                this.idleLock.wait ( this.idleRefresh );
+            } catch ( InterruptedException e ) {
+                // stop() interrupts us, and running will be false
+            }
+            return true;
+        }
+    }
+}
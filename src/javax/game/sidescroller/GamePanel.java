@@ -1,15 +1,36 @@
 package javax.game.sidescroller;
 
+import java.awt.Canvas;
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Image;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferStrategy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.JMException;
 import javax.media.utils.loaders.images.ImageLoader;
 import javax.media.utils.loaders.sound.SoundLoader;
 import javax.swing.BorderFactory;
@@ -44,35 +65,123 @@ public abstract class GamePanel extends JPanel implements ActionListener {
     private long tickrate;
 
     /**
-     * Time of last tick.
+     * Time of last tick, as given by System.nanoTime.
      * Used to determine if we should skip
      * rendering due to system load.
      */
     private long lastTickTime;
     private volatile int skippedFrames = 0;
-    private volatile int frames = 0;
 
-    protected boolean paused = false;
-    
     /**
-     * If the time between one render finishes, and
-     * the next is called drops below this value in
-     * milliseconds, we skip one rendering cycle to
-     * let the graphics system catch up.
+     * Game ticks owed when using {@link LoopMode#TIMER}.
+     * Every timer event adds timeScale / ticksPerUpdate.
+     */
+    private double tickCredit = 1.0;
+
+    /**
+     * Game ticks to run per tick of real time
      */
-    protected int timerSlack = 100;
+    private volatile double timeScale = 1.0;
+
+    protected volatile boolean paused = false;
 
     /**
      * Never skip more than this many frames in a row.
      */
     protected int maxFrameSkips = 5;
 
+    /**
+     * Decides when to skip rendering to let the graphics system catch up.
+     * Defaults to an {@link AdaptiveFrameSkipPolicy} using maxFrameSkips.
+     */
+    private FrameSkipPolicy frameSkipPolicy;
+
+    /**
+     * If set, lowers the render resolution when frames take too long
+     */
+    private volatile ResolutionScaler resolutionScaler;
+
+    /**
+     * If set, ribbons are drawn by shifting the previous frame
+     */
+    private volatile ScrollCache scrollCache;
+
+    /**
+     * If set, only the parts of the screen that changed are repainted
+     */
+    private volatile DirtyRegions dirtyRegions;
+
+    /**
+     * The visible part of the map when the off-screen buffer was last rendered
+     * from the live game state, or null if it must be rendered in full
+     */
+    private Rectangle dirtyFrame;
+
+    /**
+     * The part of the game world the frame being rendered shows
+     */
+    private final RenderContext context = new RenderContext ( );
+
     /**
      * Only execute a game state update tick every
      * this many frames.
      */
     protected int ticksPerUpdate = 5;
 
+    /**
+     * When running faster than real time, ticks may take at most
+     * this fraction of the time between two frames
+     */
+    protected double tickBudget = 0.5;
+
+    /**
+     * How the game loop is driven.
+     * May be changed by subclasses before the game is started.
+     */
+    protected LoopMode loopMode = LoopMode.TIMER;
+
+    /**
+     * When using {@link LoopMode#FIXED_STEP}, never run more than
+     * this many game ticks to catch up before rendering a frame.
+     */
+    protected int maxCatchUpTicks = 5;
+
+    /**
+     * Once a frame has been shown while the game is paused, no more
+     * frames are rendered until the game is resumed or woken by input,
+     * except for one every this many milliseconds if not 0.
+     */
+    protected long idleRefresh = 0;
+
+    /**
+     * Whether we are waiting to be woken rather than rendering frames.
+     * Only changed while holding idleLock, together with the loops and
+     * the Timer, so that a wake can never slip in between the two.
+     */
+    private volatile boolean idle = false;
+    private final Object idleLock = new Object ( );
+
+    /**
+     * Milliseconds between each Timer event when not idle
+     */
+    private int timerDelay;
+
+    /**
+     * The loop driving the game when not using {@link LoopMode#TIMER}
+     */
+    private GameLoop loop;
+
+    /**
+     * The loop rendering frames when using {@link LoopMode#PIPELINED}
+     */
+    private GameLoop renderLoop;
+
+    /**
+     * Hands snapshots of each tick from the simulation thread
+     * to the render thread when using {@link LoopMode#PIPELINED}
+     */
+    private TripleBuffer<FrameSnapshot> snapshots;
+
     protected RibbonsManager ribbons;
     public SpriteManager sprites;
     public ImageLoader images;
@@ -83,17 +192,79 @@ public abstract class GamePanel extends JPanel implements ActionListener {
      * Used to do off-screen rendering to improve
      * performance.
      */
-    private Graphics renderGraphic;
-    private Image render = null;
+    private BackBuffer render;
+
+    /**
+     * When presenting through a BufferStrategy, frames are
+     * rendered straight into the strategy's back buffer of
+     * this canvas, which covers the entire panel.
+     * Null when using active rendering of the off-screen image.
+     */
+    private Canvas canvas;
+
+    /**
+     * Number of buffers in the canvas' BufferStrategy
+     */
+    private int buffers;
+
+    /**
+     * The game state driven by this panel
+     */
+    private Simulation simulation;
+
+    /**
+     * Numbers every panel created, so that each one's
+     * metrics are exposed through JMX under a name of their own
+     */
+    private static final AtomicInteger panels = new AtomicInteger ( );
+    private final int id = panels.incrementAndGet ( );
 
     /**
      * The current in-game position.
      * This should indicates the position of the top-left
      * corner of the visible part of the current game's map.
-     * All other positions in the java.media.j3d.utils.game.sidescroller
-     * package are based on this coordinate system.
+     * 
+     * @deprecated The position now belongs to the {@link Simulation}, so use
+     * {@link #getPosition()} instead. This is still set to the current
+     * position before every tick, and to the point returned by the tick after
+     * it, so subclasses that read it, or change it and return it from
+     * {@link #tick()}, keep working.
+     */
+    @Deprecated
+    protected Point position = new Point ( 0, 0 );
+
+    /**
+     * Threads rendering all but the first viewport, created when first needed
+     */
+    private ViewportWorkers viewportWorkers;
+
+    /**
+     * The viewports of the frame being rendered, what part of the map each
+     * shows, and what to render them from. Reused from frame to frame.
+     */
+    private Viewport[] frameViews = new Viewport[0];
+    private Rectangle[] frameRects = new Rectangle[0];
+    private final List<Sprite> frameSprites = new ArrayList<Sprite> ( );
+    private FrameSnapshot frameSnapshot;
+    private double frameAlpha;
+    private GraphicsConfiguration frameConfiguration;
+
+    /**
+     * Records the input the game receives, if set
+     */
+    private InputRecorder recorder;
+
+    /**
+     * Keeps the game in sync with other players, if networked
+     */
+    private volatile RollbackSession rollback;
+
+    /**
+     * Images being loaded in the background, if any,
+     * and whether the game has been told they are ready
      */
-    protected Point position;
+    private volatile AssetPipeline assets;
+    private volatile boolean assetsReady = false;
 
     /**
      * Creates a new GamePanel using the given resources.
@@ -113,6 +284,33 @@ public abstract class GamePanel extends JPanel implements ActionListener {
      * @param tickrate Only update game state every this many frames
      */
     public GamePanel ( Dimension viewportSize, Rectangle worldArea, RibbonsManager ribbons, SpriteManager sprites, ImageLoader images, SoundLoader sounds, long tickrate ) {
+        this ( viewportSize, worldArea, ribbons, sprites, images, sounds, tickrate, 0 );
+    }
+
+    /**
+     * Creates a new GamePanel using the given resources, presenting
+     * frames through a page-flipping BufferStrategy.
+     * 
+     * If buffers is 0, frames are instead rendered to an off-screen
+     * image and copied to the screen as with
+     * {@link #GamePanel(Dimension, Rectangle, RibbonsManager, SpriteManager, ImageLoader, SoundLoader, long)}.
+     * Otherwise, frames are rendered straight into the back buffer
+     * of a Canvas covering the panel, and the JDK decides whether to
+     * flip or blit it to the screen.
+     * 
+     * @param viewportSize The size of the game panel
+     * @param worldArea The world area, null for unlimited
+     * @param ribbons The ribbon manager to use
+     * @param sprites The sprite manager to use
+     * @param images The image loader to use
+     * @param sounds The sound loader to use
+     * @param tickrate Only update game state every this many frames
+     * @param buffers Number of buffers to use (2 or 3), or 0 for active rendering
+     */
+    public GamePanel ( Dimension viewportSize, Rectangle worldArea, RibbonsManager ribbons, SpriteManager sprites, ImageLoader images, SoundLoader sounds, long tickrate, int buffers ) {
+        if ( buffers != 0 && ( buffers < 2 || buffers > 3 ) )
+            throw new IllegalArgumentException ( "A BufferStrategy needs 2 or 3 buffers, not " + buffers );
+
         this.viewportSize = viewportSize;
         this.worldArea = worldArea;
         this.ribbons = ribbons;
@@ -134,17 +332,97 @@ public abstract class GamePanel extends JPanel implements ActionListener {
         this.setFocusable ( true );
         this.requestFocus ( );
 
-        this.addKeyListener ( this.sprites );
+        this.render = new BackBuffer ( this, this.viewportSize.width, this.viewportSize.height );
+
+        this.buffers = buffers;
+        if ( this.buffers != 0 ) {
+            this.canvas = new Canvas ( );
+            this.canvas.setBounds ( 0, 0, this.viewportSize.width, this.viewportSize.height );
+            this.canvas.setIgnoreRepaint ( true );
+            this.canvas.setFocusable ( true );
+            this.setIgnoreRepaint ( true );
+            this.add ( this.canvas );
+        }
 
-        this.position = new Point ( 0, 0 );
-        if ( this.ribbons != null )
-            this.ribbons.updatePosition ( this.getVisibleMapRectangle ( ) );
+        this.simulation = new Simulation ( this.viewportSize, this.worldArea, this.ribbons, this.sprites ) {
+            @Override
+            public Point tick ( ) {
+                GamePanel.this.position.setLocation ( this.livePosition ( ) );
+                Point position = GamePanel.this.tick ( );
+                GamePanel.this.position = position;
+                return position;
+            }
 
-        if ( this.sprites != null )
-            this.sprites.setWorldArea ( this.worldArea );
+            @Override
+            protected void writeState ( ByteBuffer buffer ) {
+                GamePanel.this.writeState ( buffer );
+            }
+
+            @Override
+            protected void readState ( ByteBuffer buffer ) {
+                GamePanel.this.readState ( buffer );
+            }
+        };
+
+        // Input is handed to the sprites at the start of each tick, on the thread running it
+        InputQueue input = new InputQueue ( this.simulation );
+        input.setKeyListener ( this.sprites );
+
+        // Keys released while we don't have focus are never seen. Focus loss is
+        // queued with the keys, so that a key pressed just before is still forgotten.
+        if ( this.sprites != null ) {
+            input.setFocusListener ( new FocusAdapter ( ) {
+                @Override
+                public void focusLost ( FocusEvent e ) {
+                    GamePanel.this.sprites.getKeyboard ( ).clear ( );
+                }
+            } );
+        }
+        this.simulation.setInput ( input );
+
+        Component target = this.canvas != null ? this.canvas : this;
+        input.attach ( target );
+
+        // Input may resume the game, or change what the paused game shows
+        target.addKeyListener ( new KeyAdapter ( ) {
+            @Override
+            public void keyPressed ( KeyEvent e ) {
+                GamePanel.this.wake ( );
+            }
+
+            @Override
+            public void keyReleased ( KeyEvent e ) {
+                GamePanel.this.wake ( );
+            }
+        } );
+        target.addMouseListener ( new MouseAdapter ( ) {
+            @Override
+            public void mousePressed ( MouseEvent e ) {
+                GamePanel.this.wake ( );
+            }
+
+            @Override
+            public void mouseReleased ( MouseEvent e ) {
+                GamePanel.this.wake ( );
+            }
+        } );
+        this.addComponentListener ( new ComponentAdapter ( ) {
+            @Override
+            public void componentResized ( ComponentEvent e ) {
+                GamePanel.this.markDirty ( );
+                GamePanel.this.wake ( );
+            }
+
+            @Override
+            public void componentShown ( ComponentEvent e ) {
+                GamePanel.this.markDirty ( );
+                GamePanel.this.wake ( );
+            }
+        } );
 
         System.out.format ( "Inter-frame delay: %d ms with tickrate %d\n", (int) Math.round ( 1000.0 / this.tickrate ), this.tickrate );
-        this.timer = new Timer ( (int) Math.round ( 1000.0 / this.tickrate ), this );
+        this.timerDelay = (int) Math.round ( 1000.0 / this.tickrate );
+        this.timer = new Timer ( this.timerDelay, this );
         /**
          * Initial delay should be straight after we've started the game so we can draw straightaway
          */
@@ -157,7 +435,376 @@ public abstract class GamePanel extends JPanel implements ActionListener {
      * @return a rectangle representing the visible part of the current game world
      */
     public Rectangle getVisibleMapRectangle ( ) {
-        return new Rectangle ( this.position, this.getSize ( ) );
+        return this.simulation.getVisibleMapRectangle ( );
+    }
+
+    /**
+     * Returns the current in-game position of the top-left
+     * corner of the visible part of the map.
+     * The position is a copy, see {@link Simulation#getPosition()}.
+     * 
+     * @return the current in-game position
+     */
+    public Point getPosition ( ) {
+        return this.simulation.getPosition ( );
+    }
+
+    /**
+     * Returns the timings of each phase of the game loop
+     * 
+     * These are also exposed through JMX while the game is running.
+     * 
+     * @return the timings of each phase of the game loop
+     */
+    public FrameMetrics getMetrics ( ) {
+        return this.simulation.getMetrics ( );
+    }
+
+    /**
+     * Returns the policy deciding when frames are skipped
+     * 
+     * @return the policy deciding when frames are skipped
+     */
+    public FrameSkipPolicy getFrameSkipPolicy ( ) {
+        if ( this.frameSkipPolicy == null )
+            this.frameSkipPolicy = new AdaptiveFrameSkipPolicy ( this.maxFrameSkips );
+        return this.frameSkipPolicy;
+    }
+
+    /**
+     * Changes the policy deciding when frames are skipped
+     * 
+     * @param policy The new policy
+     */
+    public void setFrameSkipPolicy ( FrameSkipPolicy policy ) {
+        this.frameSkipPolicy = policy;
+    }
+
+    /**
+     * Makes frames render at a resolution that is adjusted to keep
+     * frame times on target. Frames are then rendered to a smaller
+     * part of the off-screen buffer, and scaled up when put on-screen.
+     * 
+     * @param scaler The scaler to use, or null to always render at full resolution
+     */
+    public void setResolutionScaler ( ResolutionScaler scaler ) {
+        this.resolutionScaler = scaler;
+    }
+
+    /**
+     * Returns the scaler adjusting the render resolution, if any
+     * 
+     * @return the scaler adjusting the render resolution, or null
+     */
+    public ResolutionScaler getResolutionScaler ( ) {
+        return this.resolutionScaler;
+    }
+
+    /**
+     * Makes scrollable ribbons be drawn by shifting what was drawn in the
+     * previous frame by how much the camera moved, and only drawing the
+     * strips along the edges that came into view. The cache times itself
+     * against drawing the ribbons directly, and is only used while it is
+     * faster.
+     * 
+     * @param enabled Whether to draw ribbons this way
+     * @see Ribbon#setScrollable(boolean)
+     */
+    public void setScrollBlit ( boolean enabled ) {
+        this.scrollCache = enabled ? new ScrollCache ( this.viewportSize.width, this.viewportSize.height ) : null;
+    }
+
+    /**
+     * Returns the cache used to draw ribbons by shifting the previous frame
+     * 
+     * @return the cache of previously drawn ribbons, or null if not enabled
+     */
+    public ScrollCache getScrollCache ( ) {
+        return this.scrollCache;
+    }
+
+    /**
+     * Makes frames only repaint the parts of the screen that have changed,
+     * such as where sprites moved from and to, and regions marked using
+     * {@link #markDirty(Rectangle)}. When nothing has changed, no frame is
+     * rendered at all, so screens where little happens take next to no CPU.
+     * 
+     * Whenever the map scrolls, the frame is rendered from a snapshot or at
+     * reduced resolution, or frames are presented through a BufferStrategy,
+     * frames that change anything are still rendered in full.
+     * Anything drawn by {@link #render(Graphics, double)} that changes must
+     * be marked as dirty, and so must sprites that override how they are drawn.
+     * 
+     * @param enabled Whether to only repaint what has changed
+     */
+    public void setDirtyRendering ( boolean enabled ) {
+        if ( this.sprites != null )
+            this.sprites.setDirtyTracking ( enabled );
+        this.dirtyRegions = enabled ? new DirtyRegions ( this.viewportSize.width, this.viewportSize.height ) : null;
+    }
+
+    /**
+     * Marks the given region of the screen as needing to be repainted,
+     * for instance because the score displayed there has changed.
+     * Does nothing unless dirty rendering is enabled.
+     * 
+     * @param r The region that changed, relative to the top-left corner of the panel
+     * @see #setDirtyRendering(boolean)
+     */
+    public void markDirty ( Rectangle r ) {
+        DirtyRegions dirty = this.dirtyRegions;
+        if ( dirty != null )
+            dirty.add ( r );
+    }
+
+    /**
+     * Marks the entire screen as needing to be repainted.
+     * Does nothing unless dirty rendering is enabled.
+     * 
+     * @see #setDirtyRendering(boolean)
+     */
+    public void markDirty ( ) {
+        DirtyRegions dirty = this.dirtyRegions;
+        if ( dirty != null )
+            dirty.addAll ( );
+    }
+
+    /**
+     * Splits the screen into multiple views of the same game.
+     * 
+     * Once a viewport has been added, the screen shows only the viewports,
+     * each rendered with its own camera into its own image in parallel, and
+     * then drawn to its region of the screen, and the position returned by
+     * {@link #tick()} only decides which sprites are considered visible.
+     * Dirty rendering always renders full frames while there are viewports.
+     * 
+     * @param v The viewport to add
+     * @see #renderViewport(Graphics, Viewport, double)
+     */
+    public void addViewport ( Viewport v ) {
+        this.simulation.addViewport ( v );
+    }
+
+    /**
+     * Removes a viewport previously added using {@link #addViewport(Viewport)}
+     * 
+     * @param v The viewport to remove
+     */
+    public void removeViewport ( Viewport v ) {
+        this.simulation.removeViewport ( v );
+        this.markDirty ( );
+    }
+
+    /**
+     * Makes the game run faster or slower than real time, for instance
+     * to fast-forward a replay or show something in slow motion.
+     * 
+     * At 2.0, twice as many game ticks are run per rendered frame, and at
+     * 0.5 half as many, while frames are still rendered at the same rate.
+     * When fast-forwarding, ticks are dropped rather than letting them take
+     * more than tickBudget of the time between two frames, so the game may
+     * run slower than asked if ticks are expensive.
+     * 
+     * @param scale Game ticks to run per tick of real time
+     */
+    public void setTimeScale ( double scale ) {
+        if ( !( scale > 0 ) )
+            throw new IllegalArgumentException ( "Time scale must be positive, not " + scale );
+
+        this.timeScale = scale;
+        if ( this.loop != null )
+            this.loop.setTimeScale ( scale );
+    }
+
+    /**
+     * Returns how many game ticks are run per tick of real time
+     * 
+     * @return the time scale
+     */
+    public double getTimeScale ( ) {
+        return this.timeScale;
+    }
+
+    /**
+     * Saves the entire state of the game world, overwriting the given state,
+     * for instance to implement quick-saving.
+     * Should be called between ticks, such as from {@link #tick()}.
+     * 
+     * @param state The state to save to
+     */
+    public void saveState ( WorldState state ) {
+        this.simulation.saveState ( state );
+    }
+
+    /**
+     * Puts the game world back in the given saved state.
+     * Should be called between ticks, such as from {@link #tick()}.
+     * 
+     * @param state A state previously saved from this game
+     */
+    public void restoreState ( WorldState state ) {
+        this.simulation.restoreState ( state );
+        this.markDirty ( );
+    }
+
+    /**
+     * Called when the world is saved, to write any state of the game that
+     * the GamePanel does not know about, such as scores, to the given buffer.
+     * Default implementation is empty.
+     * 
+     * @param buffer The buffer to write to
+     */
+    protected void writeState ( ByteBuffer buffer ) {
+    }
+
+    /**
+     * Called when the world is restored, to read back exactly
+     * what {@link #writeState(ByteBuffer)} wrote.
+     * Default implementation is empty.
+     * 
+     * @param buffer The buffer to read from
+     */
+    protected void readState ( ByteBuffer buffer ) {
+    }
+
+    /**
+     * Starts recording all input the game receives to the given file,
+     * so that it can be replayed using an {@link InputPlayer}.
+     * Any previous recording is stopped first.
+     * 
+     * @param file The file to record to
+     * @return The recorder
+     * @throws IOException if the file could not be created
+     */
+    public synchronized InputRecorder startRecording ( File file ) throws IOException {
+        this.stopRecording ( );
+        this.recorder = new InputRecorder ( file, this.simulation );
+        this.recorder.attach ( this.simulation.getInput ( ) );
+        return this.recorder;
+    }
+
+    /**
+     * Stops recording input, if a recording was started
+     */
+    public synchronized void stopRecording ( ) {
+        if ( this.recorder == null )
+            return;
+
+        try {
+            this.recorder.close ( );
+        } catch ( IOException e ) {
+            System.out.println ( "Could not finish input recording: " + e );
+        }
+        this.recorder = null;
+    }
+
+    /**
+     * Makes the game wait for the essential images of the given pipeline
+     * before running any ticks, showing a loading screen in the meantime.
+     * Once they are ready, {@link #assetsLoaded()} is called before the first tick.
+     * 
+     * @param assets The images the game needs, or null to not wait for any
+     */
+    public void setAssets ( AssetPipeline assets ) {
+        this.assetsReady = false;
+        this.assets = assets;
+        this.markDirty ( );
+    }
+
+    /**
+     * Returns the images being loaded for the game
+     * 
+     * @return the asset pipeline, or null if none
+     */
+    public AssetPipeline getAssets ( ) {
+        return this.assets;
+    }
+
+    /**
+     * Returns true if the game is still waiting for its essential images
+     * 
+     * @return true if the loading screen is shown
+     */
+    public boolean isLoading ( ) {
+        return this.assets != null && !this.assetsReady;
+    }
+
+    /**
+     * Called on the thread running the ticks once the essential images of
+     * the game's asset pipeline are ready, just before the first tick.
+     * Meant for building the sprites and ribbons that use them.
+     * Default implementation is empty.
+     */
+    protected void assetsLoaded ( ) {
+    }
+
+    /**
+     * Called instead of rendering the game while its essential images
+     * are loading. Default implementation draws a progress bar.
+     * 
+     * @param g The graphics object to draw with
+     * @param progress How much of the declared images have loaded, from 0 to 1
+     */
+    protected void renderLoading ( Graphics g, double progress ) {
+        this.clear ( g );
+
+        int width = this.viewportSize.width / 2;
+        int height = 8;
+        int x = ( this.viewportSize.width - width ) / 2;
+        int y = ( this.viewportSize.height - height ) / 2;
+        g.setColor ( Color.black );
+        g.drawRect ( x, y, width, height );
+        g.fillRect ( x, y, (int) ( width * progress ), height );
+    }
+
+    /**
+     * Makes the game run its ticks through the given session, keeping
+     * it in sync with other players, instead of running them directly
+     * 
+     * @param session The session to run ticks through, or null to stop
+     */
+    public void setRollback ( RollbackSession session ) {
+        this.rollback = session;
+    }
+
+    /**
+     * Returns the session the game runs its ticks through
+     * 
+     * @return the rollback session, or null if not networked
+     */
+    public RollbackSession getRollback ( ) {
+        return this.rollback;
+    }
+
+    /**
+     * Returns the part of the game world the frame being rendered shows.
+     * Meant to be used from {@link #render(Graphics, double)} instead of
+     * {@link #getVisibleMapRectangle()}, which creates a new Rectangle
+     * every time it is called.
+     * 
+     * @return the render context of the current frame
+     */
+    public RenderContext getRenderContext ( ) {
+        return this.context;
+    }
+
+    /**
+     * Returns the game state driven by this panel
+     * 
+     * @return the game state driven by this panel
+     */
+    public Simulation getSimulation ( ) {
+        return this.simulation;
+    }
+
+    /**
+     * Returns true if frames are presented through a BufferStrategy
+     * rather than copied from an off-screen image
+     * 
+     * @return true if frames are presented through a BufferStrategy
+     */
+    public boolean usesBufferStrategy ( ) {
+        return this.canvas != null;
     }
 
     /**
@@ -175,63 +822,524 @@ public abstract class GamePanel extends JPanel implements ActionListener {
     @Override
     public void actionPerformed ( ActionEvent e ) {
 
-        if ( !this.paused && this.frames == 0 ) {
-            this.position = this.tick ( );
+        long budget = this.timer.getDelay ( ) * 1000000L;
+        long start = System.nanoTime ( );
 
-            if ( this.worldArea != null ) {
-                this.position.x = Math.max ( this.worldArea.x, this.position.x );
-                this.position.y = Math.max ( this.worldArea.y, this.position.y );
-                this.position.x = Math.min ( this.position.x, this.worldArea.x + ( this.worldArea.width - this.getSize ( ).width ) );
-                this.position.y = Math.min ( this.position.y, this.worldArea.y + ( this.worldArea.height - this.getSize ( ).height ) );
-            }
+        // Small epsilon so that adding up 1 / ticksPerUpdate gives whole ticks
+        double scale = this.timeScale;
+        this.tickCredit += scale / this.ticksPerUpdate;
+        while ( this.tickCredit > 0.999999 ) {
+            this.step ( );
+            this.tickCredit -= 1.0;
 
-            if ( this.ribbons != null )
-                this.ribbons.updatePosition ( new Rectangle ( this.position, this.getSize ( ) ) );
-            if ( this.sprites != null )
-                this.sprites.tick ( );
+            // Fast-forwarding must not starve rendering
+            if ( scale > 1.0 && System.nanoTime ( ) - start > budget * this.tickBudget ) {
+                this.tickCredit = 0;
+                break;
+            }
         }
 
-        long timeDiff = System.currentTimeMillis ( ) - this.lastTickTime - this.timer.getDelay();
+        start = System.nanoTime ( );
+        long lateness = this.lastTickTime == 0 || this.idle ? 0 : start - this.lastTickTime - budget;
+        FrameSkipPolicy policy = this.getFrameSkipPolicy ( );
 
         // If animation is taking too long, we skip render/draw, and just update game state
-        if ( this.skippedFrames > this.maxFrameSkips || timeDiff < timerSlack ) {
-            this.render ( );
-            this.draw ( );
+        if ( policy.shouldRender ( lateness, budget, this.skippedFrames ) ) {
+            if ( this.present ( null, 1.0 ) )
+                policy.rendered ( System.nanoTime ( ) - start );
             this.skippedFrames = 0;
         } else {
-            System.out.println ( "Skipping frame" );
-            System.out.println ( "diff is " + (timeDiff - this.timer.getDelay()) + ", which is more than " + this.timerSlack );
-            System.out.println ( "Skipped frames is " + this.skippedFrames + " vs. max of " + this.maxFrameSkips );
+            this.getMetrics ( ).frameSkipped ( );
             this.skippedFrames++;
+
+            GameEvents.SkippedFrameEvent event = new GameEvents.SkippedFrameEvent ( );
+            if ( event.shouldCommit ( ) ) {
+                event.streak = this.skippedFrames;
+                event.lateMillis = lateness / 1000000;
+                event.commit ( );
+            }
         }
 
-        this.frames = ( this.frames + 1 ) % this.ticksPerUpdate;
-        this.lastTickTime = System.currentTimeMillis ( );
+        this.lastTickTime = System.nanoTime ( );
+
+        if ( this.paused && this.skippedFrames == 0 )
+            this.sleep ( null );
     }
 
     /**
-     * Does an off-screen render of the current game state
+     * Stops rendering frames until woken, once a frame has been shown while paused
+     * 
+     * @param l The loop to make idle, or null to slow down or stop the Timer
      */
-    private void render ( ) {
-        if ( this.render == null ) {
-            this.render = this.createImage ( this.viewportSize.width, this.viewportSize.height );
-            if ( this.render == null )
-                throw new RuntimeException ( "Failed to render image" );
-            this.renderGraphic = this.render.getGraphics ( );
+    private void sleep ( GameLoop l ) {
+        synchronized ( this.idleLock ) {
+            if ( l != null )
+                l.idle ( this.idleRefresh );
+            else if ( this.idleRefresh > 0 )
+                this.timer.setDelay ( (int) this.idleRefresh );
+            else
+                this.timer.stop ( );
+            this.idle = true;
+
+            // We may have been resumed, or given input, while going idle
+            InputQueue input = this.simulation.getInput ( );
+            if ( !this.paused || ( input != null && input.size ( ) > 0 ) )
+                this.wake ( );
         }
+    }
 
-        // Empty background
-        this.renderGraphic.setColor ( Color.white );
-        this.renderGraphic.fillRect ( 0, 0, this.viewportSize.width, this.viewportSize.height );
+    /**
+     * Makes the game render frames again after it went idle while paused.
+     * Called whenever the game is resumed, receives input, or is resized.
+     * If the game is still paused, it goes idle again after the next frame.
+     */
+    public void wake ( ) {
+        synchronized ( this.idleLock ) {
+            if ( !this.idle )
+                return;
 
-        // Draw elements in order
-        if ( this.ribbons != null )
-            this.ribbons.display ( this.renderGraphic );
-        // Brick manager goes here
-        if ( this.sprites != null )
-            this.sprites.display ( this.renderGraphic, this.getVisibleMapRectangle ( ) );
+            this.idle = false;
+            this.lastTickTime = 0;
+            if ( this.loopMode == LoopMode.TIMER ) {
+                this.timer.setDelay ( this.timerDelay );
+                this.timer.restart ( );
+            }
+            if ( this.loop != null )
+                this.loop.wake ( );
+            if ( this.renderLoop != null )
+                this.renderLoop.wake ( );
+        }
+    }
+
+    /**
+     * Returns true if the game is paused, and no longer rendering frames
+     * 
+     * @return true if the game is idle
+     */
+    public boolean isIdle ( ) {
+        return this.idle;
+    }
+
+    /**
+     * Runs a game tick unless the game is paused.
+     * Input is handed out either way, so that sprites
+     * can still react to keys while the game is paused.
+     */
+    private void step ( ) {
+        AssetPipeline assets = this.assets;
+        if ( assets != null && !this.assetsReady ) {
+            if ( !assets.isEssentialsReady ( ) ) {
+                InputQueue input = this.simulation.getInput ( );
+                if ( input != null )
+                    input.drain ( );
+                return;
+            }
+
+            this.assetsLoaded ( );
+            this.assetsReady = true;
+            this.markDirty ( );
+        }
+
+        if ( !this.paused ) {
+            RollbackSession r = this.rollback;
+            if ( r != null )
+                r.advance ( );
+            else
+                this.simulation.step ( );
+            return;
+        }
+
+        InputQueue input = this.simulation.getInput ( );
+        if ( input != null )
+            input.drain ( );
+    }
+
+    /**
+     * Empties the background
+     *
+     * @param g The graphics object to draw with
+     */
+    private void clear ( Graphics g ) {
+        g.setColor ( Color.white );
+        g.fillRect ( 0, 0, this.viewportSize.width, this.viewportSize.height );
+    }
+
+    /**
+     * Renders a frame and puts it on-screen, either by
+     * drawing the off-screen buffer using active rendering,
+     * or by flipping the canvas' BufferStrategy.
+     *
+     * @param snapshot The snapshot to render, or null to render the live game state
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @return false if nothing had changed, so no frame was rendered
+     */
+    private boolean present ( FrameSnapshot snapshot, double alpha ) {
+        GameEvents.FrameEvent event = new GameEvents.FrameEvent ( );
+        event.begin ( );
+        if ( !this.show ( snapshot, alpha ) )
+            return false;
+        event.end ( );
+
+        this.simulation.getMetrics ( ).frameRendered ( );
+
+        if ( event.shouldCommit ( ) ) {
+            event.tick = this.simulation.getTickCount ( );
+            event.alpha = alpha;
+            event.snapshot = snapshot != null;
+            event.commit ( );
+        }
+        return true;
+    }
+
+    /**
+     * Does the actual work of {@link #present(FrameSnapshot, double)}
+     *
+     * @param snapshot The snapshot to render, or null to render the live game state
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @return false if nothing had changed, so no frame was rendered
+     */
+    private boolean show ( FrameSnapshot snapshot, double alpha ) {
+        FrameMetrics metrics = this.simulation.getMetrics ( );
+        ResolutionScaler scaler = this.resolutionScaler;
+        double scale = scaler == null ? 1.0 : scaler.getScale ( );
+        long frameStart = System.nanoTime ( );
+
+        DirtyRegions dirty = this.dirtyRegions;
+        if ( dirty != null ) {
+            if ( snapshot != null || scale < 1.0 || !this.simulation.getViewports ( ).isEmpty ( ) || this.isLoading ( ) ) {
+                this.dirtyFrame = null;
+            } else {
+                Rectangle frame = this.updateContext ( null, alpha ).getFrame ( );
+                if ( this.dirtyFrame == null || this.dirtyFrame.x != frame.x || this.dirtyFrame.y != frame.y )
+                    dirty.addAll ( );
+                if ( this.sprites != null )
+                    this.sprites.collectDirtyRegions ( dirty, frame, alpha );
+
+                // Anything marked dirty from here on is left for the next frame
+                Rectangle[] regions = dirty.drain ( );
+                if ( regions != null && regions.length == 0 )
+                    return false;
+
+                if ( this.canvas == null && regions != null ) {
+                    long start = System.nanoTime ( );
+                    boolean lost = this.renderOffscreen ( regions, alpha );
+                    start = metrics.recordSince ( Phase.RENDER, start );
+
+                    if ( !lost ) {
+                        lost = this.draw ( regions );
+                        metrics.recordSince ( Phase.DRAW, start );
+                    }
+
+                    // Rendering the regions was not enough, so render everything
+                    if ( !lost ) {
+                        if ( scaler != null )
+                            scaler.frameRendered ( System.nanoTime ( ) - frameStart );
+                        return true;
+                    }
+                }
+
+                if ( this.dirtyFrame == null )
+                    this.dirtyFrame = new Rectangle ( frame );
+                else
+                    this.dirtyFrame.setBounds ( frame );
+            }
+        }
+
+        if ( this.canvas == null ) {
+            // The off-screen buffer may be lost both while rendering and drawing it
+            boolean lost;
+            do {
+                long start = System.nanoTime ( );
+                lost = this.renderOffscreen ( snapshot, alpha, scale );
+                start = metrics.recordSince ( Phase.RENDER, start );
+
+                if ( !lost ) {
+                    lost = this.draw ( scale );
+                    metrics.recordSince ( Phase.DRAW, start );
+                }
+            } while ( lost );
+        } else {
+            BufferStrategy strategy = this.getCanvasStrategy ( );
+            if ( strategy == null )
+                return false;
+
+            // Both loops are needed in case the buffers are lost while we render
+            do {
+                long start = System.nanoTime ( );
+                boolean lost;
+                do {
+                    Graphics g = strategy.getDrawGraphics ( );
+                    try {
+                        lost = this.paint ( g, snapshot, alpha, scale );
+                    } finally {
+                        g.dispose ( );
+                    }
+                } while ( lost || strategy.contentsRestored ( ) );
+                start = metrics.recordSince ( Phase.RENDER, start );
+
+                strategy.show ( );
+                metrics.recordSince ( Phase.DRAW, start );
+            } while ( strategy.contentsLost ( ) );
+
+            Toolkit.getDefaultToolkit ( ).sync ( );
+        }
+
+        if ( scaler != null )
+            scaler.frameRendered ( System.nanoTime ( ) - frameStart );
+        return true;
+    }
+
+    /**
+     * Renders a frame into the off-screen buffer,
+     * scaled down to the given fraction of the full resolution
+     *
+     * @param snapshot The snapshot to render, or null to render the live game state
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @param scale Fraction of the full resolution to render at
+     * @return true if the off-screen buffer was lost, and the frame should be rendered again
+     */
+    private boolean renderOffscreen ( FrameSnapshot snapshot, double alpha, double scale ) {
+        Graphics2D g = this.render.begin ( );
+        if ( scale < 1.0 ) {
+            g.scale ( scale, scale );
+            g.clipRect ( 0, 0, this.viewportSize.width, this.viewportSize.height );
+        }
+
+        this.render ( g, snapshot, alpha );
+        return this.render.end ( g );
+    }
+
+    /**
+     * Renders the given regions of the live game state into the off-screen buffer,
+     * leaving the rest of it as it was
+     *
+     * @param regions The regions to render
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @return true if the off-screen buffer was lost, and the entire frame should be rendered again
+     */
+    private boolean renderOffscreen ( Rectangle[] regions, double alpha ) {
+        long lost = this.render.getContentsLost ( );
+        Graphics2D g = this.render.begin ( );
+
+        // If the buffer was restored, nothing outside the regions is left
+        if ( this.render.getContentsLost ( ) != lost ) {
+            g.dispose ( );
+            return true;
+        }
+
+        for ( Rectangle r : regions ) {
+            Graphics clipped = g.create ( r.x, r.y, r.width, r.height );
+            clipped.translate ( -r.x, -r.y );
+            this.render ( clipped, null, alpha );
+            clipped.dispose ( );
+        }
+        return this.render.end ( g );
+    }
+
+    /**
+     * Renders a frame covering the entire panel using the given Graphics context.
+     * At reduced resolution, the frame is rendered off-screen and scaled up.
+     *
+     * @param g The graphics object to draw with
+     * @param snapshot The snapshot to render, or null to render the live game state
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @param scale Fraction of the full resolution to render at
+     * @return true if the off-screen buffer was lost, and the frame should be rendered again
+     */
+    private boolean paint ( Graphics g, FrameSnapshot snapshot, double alpha, double scale ) {
+        if ( scale >= 1.0 ) {
+            this.render ( g, snapshot, alpha );
+            return false;
+        }
+
+        return this.renderOffscreen ( snapshot, alpha, scale ) || this.render.drawTo ( g, scale );
+    }
+
+    /**
+     * Returns the BufferStrategy of the canvas, creating it if
+     * the canvas has become displayable
+     *
+     * @return The BufferStrategy to draw with, or null if the canvas is not yet displayable
+     */
+    private BufferStrategy getCanvasStrategy ( ) {
+        if ( this.canvas == null || !this.canvas.isDisplayable ( ) )
+            return null;
 
-        this.render ( this.renderGraphic );
+        BufferStrategy strategy = this.canvas.getBufferStrategy ( );
+        if ( strategy == null ) {
+            this.canvas.createBufferStrategy ( this.buffers );
+            strategy = this.canvas.getBufferStrategy ( );
+        }
+        return strategy;
+    }
+
+    /**
+     * Renders one frame of the game using the given Graphics context
+     *
+     * @param g The graphics object to draw with
+     * @param snapshot The snapshot to render, or null to render the live game state
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @see RenderAllocationCheck
+     */
+    void render ( Graphics g, FrameSnapshot snapshot, double alpha ) {
+        AssetPipeline assets = this.assets;
+        if ( assets != null && !this.assetsReady ) {
+            this.renderLoading ( g, assets.getProgress ( ) );
+            return;
+        }
+
+        List<Viewport> viewports = this.simulation.getViewports ( );
+        if ( snapshot == null ? !viewports.isEmpty ( ) : snapshot.getViewportCount ( ) > 0 ) {
+            this.renderViewports ( g, snapshot, alpha );
+        } else {
+            Rectangle frame = this.updateContext ( snapshot, alpha ).getFrame ( );
+            this.renderView ( g, frame, this.scrollCache, snapshot, null, alpha );
+        }
+
+        this.render ( g, alpha );
+    }
+
+    /**
+     * Moves the render context to the part of the game world the frame shows
+     *
+     * @param snapshot The snapshot to render, or null to render the live game state
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @return the render context
+     */
+    private RenderContext updateContext ( FrameSnapshot snapshot, double alpha ) {
+        if ( snapshot != null )
+            snapshot.getFrame ( alpha, this.context );
+        else
+            this.context.interpolate ( this.simulation.livePreviousPosition ( ), this.simulation.livePosition ( ), this.viewportSize.width, this.viewportSize.height, alpha );
+        return this.context;
+    }
+
+    /**
+     * Renders every viewport into its own image, all but the first one
+     * on worker threads, and then draws each image to its region of the screen
+     *
+     * @param g The graphics object to draw with
+     * @param snapshot The snapshot to render, or null to render the live game state
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    private void renderViewports ( Graphics g, FrameSnapshot snapshot, double alpha ) {
+        int count;
+        if ( snapshot == null ) {
+            List<Viewport> viewports = this.simulation.getViewports ( );
+            count = viewports.size ( );
+            this.ensureViewports ( count );
+            for ( int i = 0; i < count; i++ ) {
+                this.frameViews[i] = viewports.get ( i );
+                this.frameViews[i].getInterpolatedMapRectangle ( alpha, this.frameRects[i] );
+            }
+
+            // Every viewport draws the sprites as they are now, without holding up the tick thread
+            if ( this.sprites != null )
+                this.sprites.collect ( this.frameSprites );
+        } else {
+            count = snapshot.getViewportCount ( );
+            this.ensureViewports ( count );
+            for ( int i = 0; i < count; i++ ) {
+                this.frameViews[i] = snapshot.getViewport ( i );
+                snapshot.getViewportFrame ( i, alpha, this.frameRects[i] );
+            }
+        }
+
+        this.frameSnapshot = snapshot;
+        this.frameAlpha = alpha;
+        this.frameConfiguration = GraphicsEnvironment.isHeadless ( ) ? null : this.getGraphicsConfiguration ( );
+        boolean done = this.getViewportWorkers ( ).render ( count );
+        this.frameSprites.clear ( );
+        if ( !done )
+            return;
+
+        this.clear ( g );
+        for ( int i = 0; i < count; i++ ) {
+            Viewport v = this.frameViews[i];
+            Rectangle bounds = v.getBounds ( );
+            g.drawImage ( v.getImage ( ), bounds.x, bounds.y, null );
+            this.frameViews[i] = null;
+        }
+    }
+
+    /**
+     * Makes room for the given number of viewports in the frame being rendered
+     */
+    private void ensureViewports ( int count ) {
+        if ( this.frameViews.length >= count )
+            return;
+
+        this.frameViews = new Viewport[count];
+        this.frameRects = new Rectangle[count];
+        for ( int i = 0; i < count; i++ )
+            this.frameRects[i] = new Rectangle ( );
+    }
+
+    /**
+     * Renders one viewport of the frame being rendered into its own image
+     *
+     * @param i Which viewport to render
+     */
+    private void renderViewportImage ( int i ) {
+        Viewport v = this.frameViews[i];
+        FrameSnapshot snapshot = this.frameSnapshot;
+        double alpha = this.frameAlpha;
+
+        // The viewport keeps its graphics context from frame to frame
+        Graphics2D g = v.begin ( this.frameConfiguration );
+        this.renderView ( g, this.frameRects[i], v.getScrollCache ( ), snapshot, snapshot == null ? this.frameSprites : null, alpha );
+        this.renderViewport ( g, v, alpha );
+    }
+
+    /**
+     * Returns the threads used to render viewports, starting them if needed
+     *
+     * @return the threads used to render viewports
+     */
+    private synchronized ViewportWorkers getViewportWorkers ( ) {
+        if ( this.viewportWorkers == null ) {
+            int threads = Math.max ( 1, Runtime.getRuntime ( ).availableProcessors ( ) - 1 );
+            this.viewportWorkers = new ViewportWorkers ( threads, new ThreadFactory ( ) {
+                @Override
+                public Thread newThread ( Runnable r ) {
+                    Thread t = new Thread ( r, "GamePanel viewport" );
+                    t.setDaemon ( true );
+                    return t;
+                }
+            }, new ViewportWorkers.Task ( ) {
+                @Override
+                public void render ( int i ) {
+                    GamePanel.this.renderViewportImage ( i );
+                }
+            } );
+        }
+        return this.viewportWorkers;
+    }
+
+    /**
+     * Renders the background, ribbons and sprites as seen from the given frame
+     *
+     * @param g The graphics object to draw with
+     * @param frame The visible part of the map
+     * @param cache The cache of previously drawn ribbons, or null
+     * @param snapshot The snapshot to render, or null to render the live game state
+     * @param sprites The live sprites as of the start of the frame, or null to draw them from the sprite manager
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    private void renderView ( Graphics g, Rectangle frame, ScrollCache cache, FrameSnapshot snapshot, List<Sprite> sprites, double alpha ) {
+        // Draw elements in order, starting with an empty background
+        if ( this.ribbons == null || cache == null || !this.ribbons.display ( g, frame, cache ) ) {
+            this.clear ( g );
+            if ( this.ribbons != null )
+                this.ribbons.display ( g, frame );
+        }
+        // Brick manager goes here
+        if ( snapshot != null )
+            snapshot.drawSprites ( g, frame, alpha );
+        else if ( sprites != null )
+            SpriteManager.display ( sprites, g, frame, alpha );
+        else if ( this.sprites != null )
+            this.sprites.display ( g, frame, alpha );
     }
 
     /**
@@ -246,15 +1354,54 @@ public abstract class GamePanel extends JPanel implements ActionListener {
     protected void render ( Graphics g ) {
     }
 
+    /**
+     * Called by the off-screen renderer whenever it wants to render.
+     * 
+     * alpha is only ever less than 1 when using {@link LoopMode#FIXED_STEP}
+     * or {@link LoopMode#PIPELINED}, and may be used to draw elements
+     * between their positions in the last tick and the current one.
+     * Default implementation calls {@link #render(Graphics)}.
+     * 
+     * @param g The graphics object to draw with
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    protected void render ( Graphics g, double alpha ) {
+        this.render ( g );
+    }
+
+    /**
+     * Called whenever a viewport has been rendered, to render anything
+     * that belongs to that viewport only, such as a player's score.
+     * 
+     * Coordinates are relative to the top-left corner of the viewport.
+     * The graphics context is kept from frame to frame, so any change made
+     * to its transform, clip or composite must be undone before returning.
+     * Note that this is called on a different thread for each viewport,
+     * at the same time. Anything drawn across all the viewports should
+     * be drawn by {@link #render(Graphics, double)}, which is called
+     * once they are all on-screen.
+     * Default implementation is empty.
+     * 
+     * @param g The graphics object to draw with
+     * @param v The viewport that was rendered
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    protected void renderViewport ( Graphics g, Viewport v, double alpha ) {
+    }
+
     /**
      * Use active rendering to put the buffered image on-screen
+     * 
+     * @param scale Fraction of the full resolution the image was rendered at
+     * @return true if the buffered image was lost while drawing it
      */
-    private void draw ( ) {
+    private boolean draw ( double scale ) {
         Graphics g;
+        boolean lost = false;
         try {
             g = this.getGraphics ( );
-            if ( ( g != null ) && ( this.render != null ) )
-                g.drawImage ( this.render, 0, 0, null );
+            if ( g != null )
+                lost = this.render.drawTo ( g, scale );
             // Sync the display on some systems.
             // (on Linux, this fixes event queue problems)
             Toolkit.getDefaultToolkit ( ).sync ( );
@@ -262,6 +1409,50 @@ public abstract class GamePanel extends JPanel implements ActionListener {
         } catch ( Exception e ) {
             System.out.println ( "Graphics context error: " + e );
         }
+        return lost;
+    }
+
+    /**
+     * Use active rendering to put the given regions of the buffered image on-screen
+     * 
+     * @param regions The regions to put on-screen
+     * @return true if the buffered image was lost while drawing it
+     */
+    private boolean draw ( Rectangle[] regions ) {
+        boolean lost = false;
+        try {
+            Graphics g = this.getGraphics ( );
+            if ( g != null ) {
+                for ( Rectangle r : regions )
+                    lost |= this.render.drawTo ( g, r );
+                g.dispose ( );
+            }
+            Toolkit.getDefaultToolkit ( ).sync ( );
+        } catch ( Exception e ) {
+            System.out.println ( "Graphics context error: " + e );
+        }
+        return lost;
+    }
+
+    /**
+     * Makes the next frame repaint everything, waking the game
+     * if it is idle, since Swing has painted over it
+     */
+    @Override
+    protected void paintComponent ( Graphics g ) {
+        super.paintComponent ( g );
+        this.markDirty ( );
+        this.wake ( );
+    }
+
+    /**
+     * Returns how many times the contents of the off-screen
+     * buffer has been lost and had to be rendered again
+     * 
+     * @return how many times the off-screen buffer has been lost
+     */
+    public long getContentsLostCount ( ) {
+        return this.render.getContentsLost ( );
     }
 
     /**
@@ -284,6 +1475,7 @@ public abstract class GamePanel extends JPanel implements ActionListener {
      */
     public void resume ( ) {
         this.paused = false;
+        this.wake ( );
         this.onResume ( );
     }
 
@@ -322,7 +1514,17 @@ public abstract class GamePanel extends JPanel implements ActionListener {
      * Called to quit the game
      */
     public void end ( ) {
+        this.getMetrics ( ).unregister ( );
+        this.stopRecording ( );
         this.timer.stop ( );
+        if ( this.loop != null )
+            this.loop.stop ( );
+        if ( this.renderLoop != null )
+            this.renderLoop.stop ( );
+        synchronized ( this ) {
+            if ( this.viewportWorkers != null )
+                this.viewportWorkers.shutdown ( );
+        }
         this.onEnd ( );
     }
 
@@ -337,10 +1539,122 @@ public abstract class GamePanel extends JPanel implements ActionListener {
      * Called to start the game
      */
     public void start ( ) {
-        this.timer.start ( );
+        try {
+            // Several panels of the same class may be running at once
+            this.getMetrics ( ).register ( this.getClass ( ).getName ( ) + "#" + this.id );
+        } catch ( JMException e ) {
+            System.out.println ( "Could not expose frame metrics through JMX: " + e );
+        }
+
+        if ( this.canvas != null )
+            this.canvas.requestFocusInWindow ( );
+
+        if ( this.loopMode == LoopMode.TIMER )
+            this.timer.start ( );
+        else if ( this.loopMode == LoopMode.FIXED_STEP )
+            this.startLoop ( );
+        else
+            this.startPipeline ( );
         this.onStart ( );
     }
 
+    /**
+     * Starts a fixed-timestep loop on its own thread.
+     * Ticks run at the same rate as they would with the Timer,
+     * but frames no longer have to keep up for the game to run
+     * at full speed.
+     */
+    private void startLoop ( ) {
+        long frameInterval = Math.round ( 1000000000.0 / this.tickrate );
+        long tickInterval = frameInterval * Math.max ( 1, this.ticksPerUpdate );
+
+        this.loop = new GameLoop ( tickInterval, frameInterval, this.maxCatchUpTicks, this.getMetrics ( ).getHistogram ( Phase.JITTER ) ) {
+            @Override
+            protected void tick ( ) {
+                GamePanel.this.step ( );
+            }
+
+            @Override
+            protected void frame ( double alpha ) {
+                // Nothing moves while paused, so there is nothing to interpolate
+                boolean paused = GamePanel.this.paused;
+                GamePanel.this.present ( null, paused ? 1.0 : alpha );
+                if ( paused )
+                    GamePanel.this.sleep ( this );
+            }
+        };
+        this.loop.setTimeScale ( this.timeScale );
+        this.loop.setTickBudget ( (long) ( frameInterval * this.tickBudget ) );
+        this.loop.start ( "GamePanel loop" );
+    }
+
+    /**
+     * Starts a simulation thread running ticks at a fixed rate, and
+     * a render thread drawing the latest tick at the frame rate.
+     * The two only share the snapshots passed between them.
+     */
+    private void startPipeline ( ) {
+        long frameInterval = Math.round ( 1000000000.0 / this.tickrate );
+        final long tickInterval = frameInterval * Math.max ( 1, this.ticksPerUpdate );
+
+        this.snapshots = new TripleBuffer<FrameSnapshot> ( new FrameSnapshot ( ), new FrameSnapshot ( ), new FrameSnapshot ( ) );
+        this.capture ( );
+
+        this.loop = new GameLoop ( tickInterval, tickInterval, this.maxCatchUpTicks ) {
+            @Override
+            protected void tick ( ) {
+                GamePanel.this.step ( );
+                GamePanel.this.capture ( );
+
+                // Input may have changed what the paused game shows
+                if ( GamePanel.this.paused && GamePanel.this.renderLoop != null )
+                    GamePanel.this.renderLoop.wake ( );
+            }
+
+            @Override
+            protected void frame ( double alpha ) {
+                // Frames are rendered by the render loop
+                if ( GamePanel.this.paused )
+                    GamePanel.this.sleep ( this );
+            }
+        };
+
+        this.renderLoop = new GameLoop ( frameInterval, frameInterval, 1, this.getMetrics ( ).getHistogram ( Phase.JITTER ) ) {
+            @Override
+            protected void tick ( ) {
+                // Ticks are run by the simulation loop
+            }
+
+            @Override
+            protected void frame ( double alpha ) {
+                TripleBuffer<FrameSnapshot> snapshots = GamePanel.this.snapshots;
+                boolean fresh = snapshots.update ( );
+                FrameSnapshot snapshot = snapshots.getFront ( );
+                long interval = (long) ( tickInterval / GamePanel.this.timeScale );
+                GamePanel.this.present ( snapshot, snapshot.getAlpha ( interval ) );
+
+                // Go idle once the last paused snapshot is on-screen
+                if ( !fresh && snapshot.isPaused ( ) )
+                    GamePanel.this.sleep ( this );
+            }
+        };
+
+        // Nothing else runs on the simulation thread, so ticks may use all of it
+        this.loop.setTimeScale ( this.timeScale );
+        this.loop.setTickBudget ( tickInterval );
+        this.loop.start ( "GamePanel simulation" );
+        this.renderLoop.start ( "GamePanel render" );
+    }
+
+    /**
+     * Publishes a snapshot of the current game state to the render thread
+     */
+    private void capture ( ) {
+        FrameSnapshot snapshot = this.snapshots.getBack ( );
+        snapshot.capture ( this.simulation.livePreviousPosition ( ), this.simulation.livePosition ( ), this.viewportSize.width, this.viewportSize.height, this.simulation.getViewports ( ), this.sprites, this.paused );
+        this.snapshots.publish ( );
+    }
+
     /**
      * Returns the rectangle representing the entire game world
      * 
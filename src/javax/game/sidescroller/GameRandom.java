@@ -0,0 +1,86 @@
+package javax.game.sidescroller;
+
+import java.util.Random;
+
+/**
+ * A random number generator whose entire state can be read and restored
+ *
+ * Produces exactly the same numbers as java.util.Random given the same
+ * seed, but keeps its state in a plain field, so that it can be recorded
+ * and restored along with the rest of the game, for instance to replay
+ * a recorded game exactly as it happened. For the same reason, it does
+ * not cache a second value between calls to nextGaussian.
+ *
+ * Unlike java.util.Random, it is not safe to use from multiple threads,
+ * and should only be used from the thread running the game ticks.
+ *
+ * @see Simulation#getRandom()
+ */
+@SuppressWarnings ( "serial" )
+public class GameRandom extends Random {
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = ( 1L << 48 ) - 1;
+
+    /**
+     * Set by Random's constructor through setSeed, so it must not have an initializer
+     */
+    private long state;
+
+    /**
+     * Creates a new generator with a seed that is likely to be unique
+     */
+    public GameRandom ( ) {
+        this ( System.nanoTime ( ) ^ 0x9E3779B97F4A7C15L );
+    }
+
+    /**
+     * Creates a new generator with the given seed
+     *
+     * @param seed The initial seed
+     */
+    public GameRandom ( long seed ) {
+        super ( seed );
+    }
+
+    @Override
+    public void setSeed ( long seed ) {
+        this.state = ( seed ^ MULTIPLIER ) & MASK;
+    }
+
+    /**
+     * Returns the current state of the generator
+     *
+     * @return the current state, to be passed to {@link #setState(long)}
+     */
+    public long getState ( ) {
+        return this.state;
+    }
+
+    /**
+     * Restores a state previously returned by {@link #getState()}
+     *
+     * @param state The state to restore
+     */
+    public void setState ( long state ) {
+        this.state = state & MASK;
+    }
+
+    @Override
+    protected int next ( int bits ) {
+        this.state = ( this.state * MULTIPLIER + ADDEND ) & MASK;
+        return (int) ( this.state >>> ( 48 - bits ) );
+    }
+
+    @Override
+    public double nextGaussian ( ) {
+        double v1, v2, s;
+        do {
+            v1 = 2 * this.nextDouble ( ) - 1;
+            v2 = 2 * this.nextDouble ( ) - 1;
+            s = v1 * v1 + v2 * v2;
+        } while ( s >= 1 || s == 0 );
+        return v1 * StrictMath.sqrt ( -2 * StrictMath.log ( s ) / s );
+    }
+}
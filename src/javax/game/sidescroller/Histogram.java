@@ -0,0 +1,146 @@
+package javax.game.sidescroller;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, such as durations in nanoseconds
+ *
+ * Values are counted in logarithmic buckets, each power of two being
+ * split into eight linear sub-buckets, so percentiles are accurate to
+ * within 12.5%. Recording a value is a couple of atomic increments and
+ * never allocates or blocks, so any number of threads may record while
+ * another thread reads percentiles.
+ */
+public class Histogram {
+
+    /**
+     * Each power of two is split into 2^SUB_BITS buckets
+     */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Values below this are counted exactly
+     */
+    private static final int LINEAR = SUB_BUCKETS * 2;
+
+    private static final int BUCKETS = LINEAR + ( 63 - ( SUB_BITS + 1 ) ) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray ( BUCKETS );
+    private final AtomicLong count = new AtomicLong ( );
+    private final AtomicLong sum = new AtomicLong ( );
+    private final AtomicLong max = new AtomicLong ( );
+
+    /**
+     * Records a single value.
+     * Negative values are counted as 0.
+     *
+     * @param value The value to record
+     */
+    public void record ( long value ) {
+        if ( value < 0 )
+            value = 0;
+
+        this.counts.incrementAndGet ( bucket ( value ) );
+        this.count.incrementAndGet ( );
+        this.sum.addAndGet ( value );
+
+        long m = this.max.get ( );
+        while ( value > m && !this.max.compareAndSet ( m, value ) )
+            m = this.max.get ( );
+    }
+
+    /**
+     * Returns the number of recorded values
+     *
+     * @return the number of recorded values
+     */
+    public long getCount ( ) {
+        return this.count.get ( );
+    }
+
+    /**
+     * Returns the largest recorded value
+     *
+     * @return the largest recorded value, or 0 if nothing has been recorded
+     */
+    public long getMax ( ) {
+        return this.max.get ( );
+    }
+
+    /**
+     * Returns the average of the recorded values
+     *
+     * @return the average of the recorded values, or 0 if nothing has been recorded
+     */
+    public double getMean ( ) {
+        long n = this.count.get ( );
+        return n == 0 ? 0 : (double) this.sum.get ( ) / n;
+    }
+
+    /**
+     * Returns an estimate of the value below which the given
+     * fraction of the recorded values fall
+     *
+     * @param quantile A number between 0 and 1, such as 0.99 for the 99th percentile
+     * @return the estimated value, or 0 if nothing has been recorded
+     */
+    public long getPercentile ( double quantile ) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            snapshot[i] = this.counts.get ( i );
+            total += snapshot[i];
+        }
+
+        if ( total == 0 )
+            return 0;
+
+        long rank = (long) Math.ceil ( Math.max ( 0.0, Math.min ( 1.0, quantile ) ) * total );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            seen += snapshot[i];
+            if ( seen >= rank && snapshot[i] > 0 )
+                return Math.min ( highest ( i ), this.getMax ( ) );
+        }
+        return this.getMax ( );
+    }
+
+    /**
+     * Forgets all recorded values.
+     * Values recorded while resetting may or may not be kept.
+     */
+    public void reset ( ) {
+        for ( int i = 0; i < BUCKETS; i++ )
+            this.counts.set ( i, 0 );
+        this.count.set ( 0 );
+        this.sum.set ( 0 );
+        this.max.set ( 0 );
+    }
+
+    /**
+     * Returns the bucket the given value should be counted in
+     */
+    private static int bucket ( long value ) {
+        if ( value < LINEAR )
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros ( value );
+        int sub = (int) ( value >>> ( exponent - SUB_BITS ) ) & ( SUB_BUCKETS - 1 );
+        return LINEAR + ( exponent - ( SUB_BITS + 1 ) ) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the highest value that is counted in the given bucket
+     */
+    private static long highest ( int bucket ) {
+        if ( bucket < LINEAR )
+            return bucket;
+
+        int exponent = ( bucket - LINEAR ) / SUB_BUCKETS + SUB_BITS + 1;
+        long sub = ( bucket - LINEAR ) % SUB_BUCKETS;
+        long lowest = ( 1L << exponent ) + ( sub << ( exponent - SUB_BITS ) );
+        return lowest + ( 1L << ( exponent - SUB_BITS ) ) - 1;
+    }
+}
@@ -0,0 +1,325 @@
+package javax.game.sidescroller;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps decoded images on disk as raw pixels, so they need not be decoded
+ * again the next time the game starts
+ *
+ * Each image is stored in a file of its own, named by a hash of the
+ * contents of the file it was decoded from. Changing a source file changes
+ * its hash, so the stale pixels are simply never looked up again, and
+ * no modification times need to be trusted. Every hit marks the cached
+ * file as used, so {@link #prune(long)} can delete the files nothing has
+ * looked up for a while, which includes those of changed sources.
+ * Reading a cached image maps
+ * its file into memory and copies the pixels straight into the raster of
+ * a new image, which is far quicker than decoding a PNG or JPEG.
+ *
+ * Images are stored in the format they are given in, which for images
+ * loaded by an {@link AssetPipeline} is the format of the screen, so a
+ * cached image can be drawn without being converted first. Images whose
+ * pixels are not packed into ints are converted to ARGB first.
+ *
+ * <pre>
+ * AssetPipeline assets = new AssetPipeline ( );
+ * assets.setCache ( new ImageCache ( new File ( home, ".mygame/images" ) ) );
+ * </pre>
+ */
+public class ImageCache {
+
+    /**
+     * Marks a file as a cached image, and the byte order it was written in
+     */
+    private static final int MAGIC = 0x4A474943;
+    private static final int VERSION = 1;
+
+    /**
+     * Magic, version, width, height and image type
+     */
+    private static final int HEADER = 20;
+
+    private static final String SUFFIX = ".pixels";
+    private static final String TEMPORARY = ".tmp";
+
+    private final File directory;
+    private final AtomicInteger hits = new AtomicInteger ( );
+    private final AtomicInteger misses = new AtomicInteger ( );
+
+    /**
+     * Creates a new cache keeping its files in the given directory.
+     * The directory is created when the first image is stored.
+     *
+     * @param directory Where to keep the cached images
+     */
+    public ImageCache ( File directory ) {
+        if ( directory.exists ( ) && !directory.isDirectory ( ) )
+            throw new IllegalArgumentException ( directory + " is not a directory" );
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the key the image decoded from the given contents is cached by
+     *
+     * @param contents The contents of the source file
+     * @return the key of the image
+     */
+    public static String hash ( byte[] contents ) {
+        return toHex ( digest ( ).digest ( contents ) );
+    }
+
+    /**
+     * Reads the given source file, and returns the key the image
+     * decoded from it is cached by
+     *
+     * @param source Where the image is loaded from
+     * @return the key of the image
+     * @throws IOException if the source could not be read
+     */
+    public static String hash ( URL source ) throws IOException {
+        MessageDigest digest = digest ( );
+        InputStream in = source.openStream ( );
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = in.read ( buffer ) ) >= 0 )
+                digest.update ( buffer, 0, n );
+        } finally {
+            in.close ( );
+        }
+        return toHex ( digest.digest ( ) );
+    }
+
+    private static MessageDigest digest ( ) {
+        try {
+            return MessageDigest.getInstance ( "SHA-256" );
+        } catch ( NoSuchAlgorithmException e ) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException ( e );
+        }
+    }
+
+    private static String toHex ( byte[] bytes ) {
+        StringBuilder hex = new StringBuilder ( bytes.length * 2 );
+        for ( byte b : bytes ) {
+            hex.append ( Character.forDigit ( ( b >> 4 ) & 0xF, 16 ) );
+            hex.append ( Character.forDigit ( b & 0xF, 16 ) );
+        }
+        return hex.toString ( );
+    }
+
+    private File file ( String key ) {
+        return new File ( this.directory, key + SUFFIX );
+    }
+
+    /**
+     * Returns the cached image with the given key.
+     * A cached file that cannot be used is deleted.
+     *
+     * @param key The key of the image
+     * @return the image, or null if it is not cached
+     * @throws IOException if the cached file could not be read
+     */
+    public BufferedImage get ( String key ) throws IOException {
+        File f = this.file ( key );
+        if ( !f.isFile ( ) ) {
+            this.misses.incrementAndGet ( );
+            return null;
+        }
+
+        BufferedImage image = null;
+        RandomAccessFile raf = new RandomAccessFile ( f, "r" );
+        try {
+            FileChannel channel = raf.getChannel ( );
+            // Files too large for put to have written are not ours
+            if ( channel.size ( ) <= Integer.MAX_VALUE ) {
+                MappedByteBuffer map = channel.map ( FileChannel.MapMode.READ_ONLY, 0, channel.size ( ) );
+                map.order ( ByteOrder.nativeOrder ( ) );
+                image = read ( map );
+            }
+        } finally {
+            raf.close ( );
+        }
+
+        if ( image == null ) {
+            System.out.println ( "Discarding unusable cached image " + f );
+            f.delete ( );
+            this.misses.incrementAndGet ( );
+            return null;
+        }
+
+        // Keep the file from being pruned
+        f.setLastModified ( System.currentTimeMillis ( ) );
+        this.hits.incrementAndGet ( );
+        return image;
+    }
+
+    /**
+     * Copies the pixels in the given file into a new image
+     *
+     * @param map The cached file, in native byte order
+     * @return the image, or null if the file is not a usable cached image
+     */
+    private static BufferedImage read ( ByteBuffer map ) {
+        if ( map.remaining ( ) < HEADER || map.getInt ( ) != MAGIC || map.getInt ( ) != VERSION )
+            return null;
+
+        int width = map.getInt ( );
+        int height = map.getInt ( );
+        int type = map.getInt ( );
+        if ( width <= 0 || height <= 0 || !isPacked ( type ) || map.remaining ( ) != 4L * width * height )
+            return null;
+
+        IntBuffer pixels = map.slice ( ).order ( ByteOrder.nativeOrder ( ) ).asIntBuffer ( );
+        BufferedImage image = new BufferedImage ( width, height, type );
+        WritableRaster raster = image.getRaster ( );
+
+        // Copy a row at a time through the raster rather than into the
+        // DataBuffer's array, since taking that array out of the image
+        // would keep it from ever being accelerated
+        int[] row = new int[width];
+        for ( int y = 0; y < height; y++ ) {
+            pixels.get ( row );
+            raster.setDataElements ( 0, y, width, 1, row );
+        }
+        return image;
+    }
+
+    /**
+     * Stores the given image under the given key.
+     * The file is written in full before it replaces any earlier one,
+     * so a game that crashes while storing never leaves a broken image.
+     *
+     * @param key The key of the image
+     * @param image The image to store
+     * @throws IOException if the image could not be written, or is too large to cache
+     */
+    public void put ( String key, BufferedImage image ) throws IOException {
+        int width = image.getWidth ( );
+        int height = image.getHeight ( );
+        long size = HEADER + 4L * width * height;
+        if ( size > Integer.MAX_VALUE )
+            throw new IOException ( "Image of " + width + "x" + height + " pixels is too large to cache" );
+
+        if ( !isPacked ( image.getType ( ) ) )
+            image = toPacked ( image );
+
+        ByteBuffer out = ByteBuffer.allocate ( (int) size ).order ( ByteOrder.nativeOrder ( ) );
+        out.putInt ( MAGIC ).putInt ( VERSION ).putInt ( width ).putInt ( height ).putInt ( image.getType ( ) );
+
+        IntBuffer pixels = out.slice ( ).order ( ByteOrder.nativeOrder ( ) ).asIntBuffer ( );
+        WritableRaster raster = image.getRaster ( );
+        int[] row = new int[width];
+        for ( int y = 0; y < height; y++ ) {
+            raster.getDataElements ( 0, y, width, 1, row );
+            pixels.put ( row );
+        }
+        out.clear ( );
+
+        if ( !this.directory.isDirectory ( ) && !this.directory.mkdirs ( ) && !this.directory.isDirectory ( ) )
+            throw new IOException ( "Could not create image cache directory " + this.directory );
+
+        File temporary = File.createTempFile ( key, TEMPORARY, this.directory );
+        try {
+            RandomAccessFile raf = new RandomAccessFile ( temporary, "rw" );
+            try {
+                FileChannel channel = raf.getChannel ( );
+                while ( out.hasRemaining ( ) )
+                    channel.write ( out );
+            } finally {
+                raf.close ( );
+            }
+            Files.move ( temporary.toPath ( ), this.file ( key ).toPath ( ), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } finally {
+            temporary.delete ( );
+        }
+    }
+
+    private static boolean isPacked ( int type ) {
+        return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE;
+    }
+
+    private static BufferedImage toPacked ( BufferedImage image ) {
+        int type = image.getTransparency ( ) == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage copy = new BufferedImage ( image.getWidth ( ), image.getHeight ( ), type );
+        Graphics2D g = copy.createGraphics ( );
+        g.drawImage ( image, 0, 0, null );
+        g.dispose ( );
+        return copy;
+    }
+
+    /**
+     * Deletes the cached images that have not been stored or found for
+     * the given time, such as those whose source files have since changed,
+     * along with files left behind by games that crashed while storing
+     *
+     * @param maxAge How long an image may go unused, in milliseconds
+     * @return the number of files deleted
+     */
+    public int prune ( long maxAge ) {
+        if ( maxAge < 0 )
+            throw new IllegalArgumentException ( "maxAge must not be negative" );
+
+        File[] files = this.directory.listFiles ( );
+        if ( files == null )
+            return 0;
+
+        long oldest = System.currentTimeMillis ( ) - maxAge;
+        int deleted = 0;
+        for ( File f : files ) {
+            String name = f.getName ( );
+            if ( ( name.endsWith ( SUFFIX ) || name.endsWith ( TEMPORARY ) ) && f.lastModified ( ) < oldest && f.delete ( ) )
+                deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes every cached image, whether it is still used or not
+     */
+    public void clear ( ) {
+        File[] files = this.directory.listFiles ( );
+        if ( files == null )
+            return;
+
+        for ( File f : files )
+            if ( f.getName ( ).endsWith ( SUFFIX ) )
+                f.delete ( );
+    }
+
+    /**
+     * Returns the number of images found in the cache
+     *
+     * @return the number of cache hits
+     */
+    public int getHitCount ( ) {
+        return this.hits.get ( );
+    }
+
+    /**
+     * Returns the number of images looked up but not found in the cache
+     *
+     * @return the number of cache misses
+     */
+    public int getMissCount ( ) {
+        return this.misses.get ( );
+    }
+}
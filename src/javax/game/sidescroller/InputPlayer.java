@@ -0,0 +1,214 @@
+package javax.game.sidescroller;
+
+import java.awt.AWTEvent;
+import java.awt.Canvas;
+import java.awt.Component;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replays input recorded by an {@link InputRecorder}
+ *
+ * The player runs the game's ticks itself, back-to-back as fast as the
+ * CPU allows, and puts every recorded event into the game's InputQueue
+ * just before the tick it was originally handed out in. This needs no
+ * display, so it can be used to reproduce a bug report or benchmark a
+ * real session with java.awt.headless set.
+ *
+ * Whenever the recording says what state the game's random number
+ * generator should be in, the player checks it. If it differs, the game
+ * did not behave the same way as when it was recorded, and the tick this
+ * was first noticed at is available from {@link #getDesyncTick()}.
+ */
+public class InputPlayer implements Closeable {
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long chunkStart = 0;
+    private long size;
+
+    /**
+     * The state of the random number generator when recording started
+     */
+    private long seed;
+
+    /**
+     * The first tick the game was found to behave differently at, or -1
+     */
+    private long desyncTick = -1;
+
+    /**
+     * Recorded events need a source
+     */
+    private Component source;
+
+    /**
+     * Opens the given recording
+     *
+     * @param file The file to replay
+     * @throws IOException if the file could not be read, or is not a recording
+     */
+    public InputPlayer ( File file ) throws IOException {
+        this.channel = FileChannel.open ( file.toPath ( ), StandardOpenOption.READ );
+        this.size = this.channel.size ( );
+        this.map ( );
+
+        if ( this.buffer.remaining ( ) < 16 || this.buffer.getInt ( ) != InputRecorder.MAGIC )
+            throw new IOException ( file + " is not an input recording" );
+        int version = this.buffer.getInt ( );
+        if ( version < 1 || version > InputRecorder.VERSION )
+            throw new IOException ( "Unsupported input recording version " + version );
+        this.seed = this.buffer.getLong ( );
+
+        this.source = new Canvas ( );
+    }
+
+    /**
+     * Replays the recording into the given game, starting at its current tick
+     *
+     * The game should be in the same state it was when recording started.
+     * Its random number generator is reset to the recorded state, and if it
+     * has no InputQueue, one handing key events to its SpriteManager is used,
+     * which forgets the keys held down when focus was lost.
+     *
+     * @param simulation The game to replay into
+     * @return The number of ticks run
+     * @throws IOException if the recording could not be read
+     */
+    public long play ( Simulation simulation ) throws IOException {
+        InputQueue queue = simulation.getInput ( );
+        boolean ownQueue = queue == null;
+        if ( ownQueue ) {
+            queue = new InputQueue ( simulation );
+            final SpriteManager sprites = simulation.getSprites ( );
+            queue.setKeyListener ( sprites );
+            if ( sprites != null ) {
+                queue.setFocusListener ( new FocusAdapter ( ) {
+                    @Override
+                    public void focusLost ( FocusEvent e ) {
+                        sprites.getKeyboard ( ).clear ( );
+                    }
+                } );
+            }
+            simulation.setInput ( queue );
+        }
+
+        simulation.getRandom ( ).setState ( this.seed );
+        long start = simulation.getTickCount ( );
+
+        try {
+            while ( true ) {
+                if ( !this.buffer.hasRemaining ( ) && !this.next ( ) )
+                    break;
+
+                byte type = this.buffer.get ( );
+                if ( type == InputRecorder.END )
+                    break;
+                if ( type == InputRecorder.PAD ) {
+                    if ( !this.next ( ) )
+                        break;
+                    continue;
+                }
+
+                // Run the game up to the tick this record belongs to
+                long tick = start + this.buffer.getInt ( );
+                while ( simulation.getTickCount ( ) < tick )
+                    simulation.step ( );
+
+                if ( type == InputRecorder.STOP )
+                    break;
+
+                if ( type == InputRecorder.SYNC ) {
+                    long state = this.buffer.getLong ( );
+                    if ( this.desyncTick < 0 && simulation.getRandom ( ).getState ( ) != state ) {
+                        this.desyncTick = tick - start;
+                        System.out.println ( "Replay no longer matches the recording at tick " + this.desyncTick );
+                    }
+                    continue;
+                }
+
+                AWTEvent e = this.read ( type );
+                // The events are handed out before the next tick either way
+                if ( !queue.offer ( e ) ) {
+                    queue.drain ( );
+                    queue.offer ( e );
+                }
+            }
+            queue.drain ( );
+        } finally {
+            if ( ownQueue )
+                simulation.setInput ( null );
+        }
+
+        return simulation.getTickCount ( ) - start;
+    }
+
+    /**
+     * Returns the number of ticks into the replay the game was
+     * first found to behave differently from the recording
+     *
+     * @return the tick the replay diverged at, or -1 if it has not
+     */
+    public long getDesyncTick ( ) {
+        return this.desyncTick;
+    }
+
+    @Override
+    public void close ( ) throws IOException {
+        this.buffer = null;
+        this.channel.close ( );
+    }
+
+    /**
+     * Reads the rest of a KEY, MOUSE or FOCUS record
+     */
+    private AWTEvent read ( byte type ) throws IOException {
+        int id = this.buffer.getShort ( );
+        if ( type == InputRecorder.KEY ) {
+            int code = this.buffer.getInt ( );
+            char c = this.buffer.getChar ( );
+            int modifiers = this.buffer.getInt ( );
+            int location = this.buffer.get ( );
+            return new KeyEvent ( this.source, id, 0, modifiers, code, c, location );
+        }
+        if ( type == InputRecorder.MOUSE ) {
+            int x = this.buffer.getInt ( );
+            int y = this.buffer.getInt ( );
+            int modifiers = this.buffer.getInt ( );
+            int button = this.buffer.get ( );
+            int clicks = this.buffer.getShort ( );
+            return new MouseEvent ( this.source, id, 0, modifiers, x, y, clicks, false, button );
+        }
+        if ( type == InputRecorder.FOCUS ) {
+            boolean temporary = this.buffer.get ( ) != 0;
+            return new FocusEvent ( this.source, id, temporary );
+        }
+        throw new IOException ( "Corrupt input recording, unknown record type " + type );
+    }
+
+    /**
+     * Moves on to the next chunk of the file
+     *
+     * @return false if there are no more chunks
+     */
+    private boolean next ( ) throws IOException {
+        this.chunkStart += InputRecorder.CHUNK;
+        if ( this.chunkStart >= this.size )
+            return false;
+        this.map ( );
+        return true;
+    }
+
+    private void map ( ) throws IOException {
+        long length = Math.min ( InputRecorder.CHUNK, this.size - this.chunkStart );
+        this.buffer = this.channel.map ( FileChannel.MapMode.READ_ONLY, this.chunkStart, length );
+    }
+}
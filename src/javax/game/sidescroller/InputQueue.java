@@ -0,0 +1,492 @@
+package javax.game.sidescroller;
+
+import java.awt.AWTEvent;
+import java.awt.Component;
+import java.awt.event.FocusEvent;
+import java.awt.event.FocusListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queues up key, mouse and focus events until the start of the next game tick
+ *
+ * The queue listens for events on the AWT event dispatch thread, stamps
+ * each of them with the number of ticks the simulation had run when it
+ * arrived, and stores it in a fixed-size ring buffer. At the start of
+ * every tick, the simulation drains the queue and hands the events to the
+ * listeners set on the queue, on the simulation's own thread. Sprites
+ * thus always see input between ticks, in the order it arrived, and
+ * never while another thread is in the middle of ticking them.
+ *
+ * The ring buffer has exactly one producer (the event dispatch thread)
+ * and one consumer (whichever thread runs the ticks), so neither side
+ * ever allocates, and key events never lock. If the game stops ticking
+ * for long enough to fill the queue, further events are dropped until
+ * it is drained.
+ *
+ * Mouse movement is coalesced: only the latest move or drag waits to be
+ * handed out, in a slot of its own. When another event arrives after it,
+ * the move is stored alongside that event and handed out just before it,
+ * so the order of events is kept and mouse movement never takes up a
+ * place in the queue that a key could have had.
+ */
+public class InputQueue implements KeyListener, MouseListener, MouseMotionListener, FocusListener {
+
+    /**
+     * Number of events queued by default
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final AWTEvent[] events;
+    private final long[] ticks;
+
+    /**
+     * The mouse movement that came just before each event, if any
+     */
+    private final MouseEvent[] moves;
+    private final long[] moveTicks;
+    private final int mask;
+
+    /**
+     * Number of events ever taken out of, and put into, the queue
+     */
+    private final AtomicLong head = new AtomicLong ( );
+    private final AtomicLong tail = new AtomicLong ( );
+
+    private final AtomicLong dropped = new AtomicLong ( );
+
+    /**
+     * The latest mouse move or drag, if it has not been handed out yet,
+     * and the tick it arrived in. Both are only ever written, moved into
+     * the ring buffer, or taken out to be handed out while holding motionLock.
+     */
+    private volatile MouseEvent motion;
+    private volatile long motionTick;
+    private final Object motionLock = new Object ( );
+
+    /**
+     * The component the queue listens to, if attached
+     */
+    private Component source;
+
+    private Simulation simulation;
+
+    private volatile KeyListener keyListener;
+    private volatile MouseListener mouseListener;
+    private volatile MouseMotionListener mouseMotionListener;
+    private volatile FocusListener focusListener;
+
+    /**
+     * The tick the event currently being handed out arrived in
+     */
+    private long currentTick = -1;
+
+    /**
+     * Creates a new queue stamping events with the ticks of the given simulation
+     *
+     * @param simulation The simulation consuming the events
+     */
+    public InputQueue ( Simulation simulation ) {
+        this ( simulation, DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Creates a new queue stamping events with the ticks of the given simulation
+     *
+     * @param simulation The simulation consuming the events
+     * @param capacity The number of events the queue can hold, rounded up to a power of two
+     */
+    public InputQueue ( Simulation simulation, int capacity ) {
+        int size = Integer.highestOneBit ( Math.max ( 2, capacity ) - 1 ) << 1;
+        this.simulation = simulation;
+        this.events = new AWTEvent[size];
+        this.ticks = new long[size];
+        this.moves = new MouseEvent[size];
+        this.moveTicks = new long[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Sets where key events are handed when the queue is drained
+     *
+     * @param l The listener to receive key events, or null to ignore them
+     */
+    public void setKeyListener ( KeyListener l ) {
+        this.keyListener = l;
+    }
+
+    /**
+     * Sets where mouse button events are handed when the queue is drained
+     *
+     * @param l The listener to receive mouse events, or null to ignore them
+     */
+    public synchronized void setMouseListener ( MouseListener l ) {
+        if ( this.source != null && ( l == null ) != ( this.mouseListener == null ) ) {
+            if ( l == null )
+                this.source.removeMouseListener ( this );
+            else
+                this.source.addMouseListener ( this );
+        }
+        this.mouseListener = l;
+    }
+
+    /**
+     * Sets where mouse movement events are handed when the queue is drained
+     *
+     * @param l The listener to receive mouse movement events, or null to ignore them
+     */
+    public synchronized void setMouseMotionListener ( MouseMotionListener l ) {
+        if ( this.source != null && ( l == null ) != ( this.mouseMotionListener == null ) ) {
+            if ( l == null )
+                this.source.removeMouseMotionListener ( this );
+            else
+                this.source.addMouseMotionListener ( this );
+        }
+        this.mouseMotionListener = l;
+    }
+
+    /**
+     * Sets where focus events are handed when the queue is drained.
+     * Since they are handed out in order with key events, this is where
+     * to forget keys held down when focus is lost.
+     *
+     * @param l The listener to receive focus events, or null to ignore them
+     */
+    public synchronized void setFocusListener ( FocusListener l ) {
+        if ( this.source != null && ( l == null ) != ( this.focusListener == null ) ) {
+            if ( l == null )
+                this.source.removeFocusListener ( this );
+            else
+                this.source.addFocusListener ( this );
+        }
+        this.focusListener = l;
+    }
+
+    /**
+     * Returns where focus events are handed when the queue is drained
+     *
+     * @return the listener receiving focus events, or null
+     */
+    public FocusListener getFocusListener ( ) {
+        return this.focusListener;
+    }
+
+    /**
+     * Starts queueing the events of the given component.
+     * Mouse events are only listened for while there is a listener
+     * to hand them to, so that they take no room in the queue otherwise.
+     *
+     * @param c The component to queue the events of
+     */
+    public synchronized void attach ( Component c ) {
+        if ( this.source != null )
+            throw new IllegalStateException ( "Input queue is already attached to " + this.source );
+
+        this.source = c;
+        c.addKeyListener ( this );
+        if ( this.mouseListener != null )
+            c.addMouseListener ( this );
+        if ( this.mouseMotionListener != null )
+            c.addMouseMotionListener ( this );
+        if ( this.focusListener != null )
+            c.addFocusListener ( this );
+    }
+
+    /**
+     * Returns where key events are handed when the queue is drained
+     *
+     * @return the listener receiving key events, or null
+     */
+    public KeyListener getKeyListener ( ) {
+        return this.keyListener;
+    }
+
+    /**
+     * Returns where mouse button events are handed when the queue is drained
+     *
+     * @return the listener receiving mouse events, or null
+     */
+    public MouseListener getMouseListener ( ) {
+        return this.mouseListener;
+    }
+
+    /**
+     * Returns where mouse movement events are handed when the queue is drained
+     *
+     * @return the listener receiving mouse movement events, or null
+     */
+    public MouseMotionListener getMouseMotionListener ( ) {
+        return this.mouseMotionListener;
+    }
+
+    /**
+     * Adds an event to the queue.
+     * Must only ever be called from one thread at a time.
+     *
+     * @param e The event to queue
+     * @return false if the queue was full, and the event was dropped
+     */
+    public boolean offer ( AWTEvent e ) {
+        if ( e.getID ( ) == MouseEvent.MOUSE_MOVED || e.getID ( ) == MouseEvent.MOUSE_DRAGGED ) {
+            long tick = this.simulation.getTickCount ( );
+            synchronized ( this.motionLock ) {
+                this.motionTick = tick;
+                this.motion = (MouseEvent) e;
+            }
+            return true;
+        }
+
+        // Only this thread ever sets the movement, so it stays null once seen to be
+        if ( this.motion == null )
+            return this.push ( e, null, 0 );
+
+        synchronized ( this.motionLock ) {
+            // Earlier mouse movement is handed out along with this event
+            MouseEvent m = this.motion;
+            this.motion = null;
+            return this.push ( e, m, this.motionTick );
+        }
+    }
+
+    private boolean push ( AWTEvent e, MouseEvent move, long moveTick ) {
+        long t = this.tail.get ( );
+        if ( t - this.head.get ( ) > this.mask ) {
+            this.dropped.incrementAndGet ( );
+            return false;
+        }
+
+        int i = (int) t & this.mask;
+        this.events[i] = e;
+        this.ticks[i] = this.simulation.getTickCount ( );
+        this.moves[i] = move;
+        this.moveTicks[i] = moveTick;
+        this.tail.lazySet ( t + 1 );
+        return true;
+    }
+
+    /**
+     * Hands every event that was queued before this call to the listeners.
+     * Called by the simulation at the start of every tick.
+     *
+     * @return The number of events handed out
+     */
+    public int drain ( ) {
+        long h = this.head.get ( );
+        long t = this.tail.get ( );
+        int count = (int) ( t - h );
+
+        for ( long n = h; n < t; n++ ) {
+            int i = (int) n & this.mask;
+            AWTEvent e = this.events[i];
+            MouseEvent move = this.moves[i];
+            this.events[i] = null;
+            this.moves[i] = null;
+            long tick = this.ticks[i];
+            long moveTick = this.moveTicks[i];
+            this.head.lazySet ( n + 1 );
+
+            if ( move != null ) {
+                this.currentTick = moveTick;
+                this.handOut ( move );
+                count++;
+            }
+            this.currentTick = tick;
+            this.handOut ( e );
+        }
+
+        if ( this.motion != null ) {
+            // The latest movement came after every event handed out, unless
+            // more arrived since, in which case it is handed out after them
+            MouseEvent m = null;
+            synchronized ( this.motionLock ) {
+                if ( this.tail.get ( ) == t ) {
+                    m = this.motion;
+                    this.motion = null;
+                    this.currentTick = this.motionTick;
+                }
+            }
+            if ( m != null ) {
+                this.handOut ( m );
+                count++;
+            }
+        }
+
+        this.currentTick = -1;
+        return count;
+    }
+
+    private void handOut ( AWTEvent e ) {
+        try {
+            this.dispatch ( e );
+        } catch ( RuntimeException ex ) {
+            System.out.println ( "Input event handler failed: " + ex );
+        }
+    }
+
+    private void dispatch ( AWTEvent e ) {
+        if ( e instanceof KeyEvent ) {
+            KeyListener l = this.keyListener;
+            if ( l == null )
+                return;
+
+            KeyEvent k = (KeyEvent) e;
+            switch ( e.getID ( ) ) {
+            case KeyEvent.KEY_PRESSED:
+                l.keyPressed ( k );
+                break;
+            case KeyEvent.KEY_RELEASED:
+                l.keyReleased ( k );
+                break;
+            case KeyEvent.KEY_TYPED:
+                l.keyTyped ( k );
+                break;
+            }
+        } else if ( e instanceof MouseEvent ) {
+            MouseEvent m = (MouseEvent) e;
+            MouseListener l = this.mouseListener;
+            MouseMotionListener ml = this.mouseMotionListener;
+
+            switch ( e.getID ( ) ) {
+            case MouseEvent.MOUSE_PRESSED:
+                if ( l != null )
+                    l.mousePressed ( m );
+                break;
+            case MouseEvent.MOUSE_RELEASED:
+                if ( l != null )
+                    l.mouseReleased ( m );
+                break;
+            case MouseEvent.MOUSE_CLICKED:
+                if ( l != null )
+                    l.mouseClicked ( m );
+                break;
+            case MouseEvent.MOUSE_ENTERED:
+                if ( l != null )
+                    l.mouseEntered ( m );
+                break;
+            case MouseEvent.MOUSE_EXITED:
+                if ( l != null )
+                    l.mouseExited ( m );
+                break;
+            case MouseEvent.MOUSE_MOVED:
+                if ( ml != null )
+                    ml.mouseMoved ( m );
+                break;
+            case MouseEvent.MOUSE_DRAGGED:
+                if ( ml != null )
+                    ml.mouseDragged ( m );
+                break;
+            }
+        } else if ( e instanceof FocusEvent ) {
+            FocusListener l = this.focusListener;
+            if ( l == null )
+                return;
+
+            if ( e.getID ( ) == FocusEvent.FOCUS_GAINED )
+                l.focusGained ( (FocusEvent) e );
+            else if ( e.getID ( ) == FocusEvent.FOCUS_LOST )
+                l.focusLost ( (FocusEvent) e );
+        }
+    }
+
+    /**
+     * Returns the tick the event currently being handed to a listener
+     * arrived in, that is, the number of ticks the simulation had run
+     * when it arrived
+     *
+     * @return the tick the current event arrived in, or -1 if not draining
+     */
+    public long getEventTick ( ) {
+        return this.currentTick;
+    }
+
+    /**
+     * Returns the number of events waiting in the queue
+     *
+     * @return the number of events waiting in the queue
+     */
+    public int size ( ) {
+        return (int) ( this.tail.get ( ) - this.head.get ( ) ) + ( this.motion != null ? 1 : 0 );
+    }
+
+    /**
+     * Returns the number of events dropped because the queue was full
+     *
+     * @return the number of dropped events
+     */
+    public long getDroppedCount ( ) {
+        return this.dropped.get ( );
+    }
+
+    @Override
+    public void keyPressed ( KeyEvent e ) {
+        this.offer ( e );
+    }
+
+    @Override
+    public void keyReleased ( KeyEvent e ) {
+        this.offer ( e );
+    }
+
+    @Override
+    public void keyTyped ( KeyEvent e ) {
+        this.offer ( e );
+    }
+
+    @Override
+    public void mouseClicked ( MouseEvent e ) {
+        if ( this.mouseListener != null )
+            this.offer ( e );
+    }
+
+    @Override
+    public void mousePressed ( MouseEvent e ) {
+        if ( this.mouseListener != null )
+            this.offer ( e );
+    }
+
+    @Override
+    public void mouseReleased ( MouseEvent e ) {
+        if ( this.mouseListener != null )
+            this.offer ( e );
+    }
+
+    @Override
+    public void mouseEntered ( MouseEvent e ) {
+        if ( this.mouseListener != null )
+            this.offer ( e );
+    }
+
+    @Override
+    public void mouseExited ( MouseEvent e ) {
+        if ( this.mouseListener != null )
+            this.offer ( e );
+    }
+
+    @Override
+    public void mouseMoved ( MouseEvent e ) {
+        if ( this.mouseMotionListener != null )
+            this.offer ( e );
+    }
+
+    @Override
+    public void mouseDragged ( MouseEvent e ) {
+        if ( this.mouseMotionListener != null )
+            this.offer ( e );
+    }
+
+    @Override
+    public void focusGained ( FocusEvent e ) {
+        if ( this.focusListener != null )
+            this.offer ( e );
+    }
+
+    @Override
+    public void focusLost ( FocusEvent e ) {
+        if ( this.focusListener != null )
+            this.offer ( e );
+    }
+}
@@ -0,0 +1,325 @@
+package javax.game.sidescroller;
+
+import java.awt.event.FocusEvent;
+import java.awt.event.FocusListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records the input a game receives to a file, so that it can be replayed
+ *
+ * The recorder sits between an {@link InputQueue} and its listeners, and
+ * writes every event to the log as it is handed out at the start of a tick,
+ * along with the number of ticks run since recording started. The state of
+ * the game's {@link GameRandom} is written when recording starts, and again
+ * before the first event of every tick that has any, so that a replay can
+ * tell where it started behaving differently.
+ *
+ * The log is written straight into a memory-mapped file, one chunk at a
+ * time, so recording costs little more than copying the event fields, and
+ * whatever was recorded survives the game crashing. Use an {@link InputPlayer}
+ * to replay it.
+ *
+ * For a replay to match, recording must start between two ticks with the
+ * game in a state the replay can also start from, and the game must only
+ * use {@link Simulation#getRandom()} for randomness.
+ */
+public class InputRecorder implements KeyListener, MouseListener, MouseMotionListener, FocusListener, Closeable {
+
+    static final int MAGIC = 0x4A475231;
+    /**
+     * Recordings of older versions can still be replayed
+     */
+    static final int VERSION = 2;
+
+    /**
+     * Record types.
+     * Unwritten parts of the file are zero, and so read as END.
+     */
+    static final byte END = 0;
+    static final byte KEY = 1;
+    static final byte MOUSE = 2;
+    static final byte SYNC = 3;
+    static final byte PAD = 4;
+    static final byte STOP = 5;
+    static final byte FOCUS = 6;
+
+    /**
+     * Bytes mapped at a time
+     */
+    static final int CHUNK = 1 << 20;
+
+    /**
+     * No record is longer than this
+     */
+    private static final int MAX_RECORD = 32;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long chunkStart = 0;
+
+    private Simulation simulation;
+    private InputQueue queue;
+    private long startTick;
+
+    /**
+     * The last tick a SYNC record was written for
+     */
+    private long syncedTick = -1;
+
+    private KeyListener keyListener;
+    private MouseListener mouseListener;
+    private MouseMotionListener mouseMotionListener;
+    private FocusListener focusListener;
+
+    /**
+     * Starts recording input to the given file, replacing it if it exists
+     *
+     * @param file The file to record to
+     * @param simulation The game to record input for
+     * @throws IOException if the file could not be created
+     */
+    public InputRecorder ( File file, Simulation simulation ) throws IOException {
+        this.simulation = simulation;
+        this.startTick = simulation.getTickCount ( );
+
+        this.channel = FileChannel.open ( file.toPath ( ), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        this.buffer = this.channel.map ( FileChannel.MapMode.READ_WRITE, 0, CHUNK );
+        this.buffer.putInt ( MAGIC );
+        this.buffer.putInt ( VERSION );
+        this.buffer.putLong ( simulation.getRandom ( ).getState ( ) );
+    }
+
+    /**
+     * Makes the recorder see all events handed out by the given queue.
+     * The listeners of the queue still receive them through the recorder.
+     *
+     * @param queue The queue to record events from
+     */
+    public synchronized void attach ( InputQueue queue ) {
+        this.queue = queue;
+        this.keyListener = queue.getKeyListener ( );
+        this.mouseListener = queue.getMouseListener ( );
+        this.mouseMotionListener = queue.getMouseMotionListener ( );
+        this.focusListener = queue.getFocusListener ( );
+        queue.setKeyListener ( this );
+
+        // Mouse and focus events nothing listens for are not queued, so need not be recorded
+        if ( this.mouseListener != null )
+            queue.setMouseListener ( this );
+        if ( this.mouseMotionListener != null )
+            queue.setMouseMotionListener ( this );
+        if ( this.focusListener != null )
+            queue.setFocusListener ( this );
+    }
+
+    /**
+     * Stops recording, gives the queue its listeners back,
+     * and writes out the recording
+     */
+    @Override
+    public synchronized void close ( ) throws IOException {
+        if ( this.channel == null )
+            return;
+
+        if ( this.queue != null ) {
+            this.queue.setKeyListener ( this.keyListener );
+            this.queue.setMouseListener ( this.mouseListener );
+            this.queue.setMouseMotionListener ( this.mouseMotionListener );
+            this.queue.setFocusListener ( this.focusListener );
+            this.queue = null;
+        }
+
+        this.ensure ( MAX_RECORD );
+        this.buffer.put ( STOP );
+        this.buffer.putInt ( this.getTick ( ) );
+        this.buffer.force ( );
+
+        long length = this.chunkStart + this.buffer.position ( );
+        this.buffer = null;
+        try {
+            this.channel.truncate ( length );
+        } catch ( IOException e ) {
+            // Some platforms cannot truncate mapped files, and the rest is zeros anyway
+        }
+        this.channel.close ( );
+        this.channel = null;
+    }
+
+    /**
+     * Returns the number of bytes recorded so far
+     *
+     * @return the number of bytes recorded so far
+     */
+    public synchronized long getSize ( ) {
+        return this.buffer == null ? 0 : this.chunkStart + this.buffer.position ( );
+    }
+
+    /**
+     * Returns the number of ticks run since recording started
+     */
+    private int getTick ( ) {
+        return (int) ( this.simulation.getTickCount ( ) - this.startTick );
+    }
+
+    /**
+     * Makes sure there is room for a record of the given length,
+     * moving on to the next chunk of the file if there isn't
+     */
+    private void ensure ( int length ) throws IOException {
+        if ( this.buffer.remaining ( ) >= length )
+            return;
+
+        if ( this.buffer.hasRemaining ( ) )
+            this.buffer.put ( PAD );
+        this.chunkStart += this.buffer.capacity ( );
+        this.buffer = this.channel.map ( FileChannel.MapMode.READ_WRITE, this.chunkStart, CHUNK );
+    }
+
+    /**
+     * Starts a new record, preceded by a SYNC record if this is
+     * the first record of the current tick
+     */
+    private boolean begin ( byte type ) {
+        if ( this.channel == null )
+            return false;
+
+        try {
+            int tick = this.getTick ( );
+            this.ensure ( MAX_RECORD * 2 );
+            if ( tick != this.syncedTick ) {
+                this.buffer.put ( SYNC );
+                this.buffer.putInt ( tick );
+                this.buffer.putLong ( this.simulation.getRandom ( ).getState ( ) );
+                this.syncedTick = tick;
+            }
+            this.buffer.put ( type );
+            this.buffer.putInt ( tick );
+            return true;
+        } catch ( IOException e ) {
+            System.out.println ( "Could not record input: " + e );
+            return false;
+        }
+    }
+
+    private synchronized void record ( KeyEvent e ) {
+        if ( !this.begin ( KEY ) )
+            return;
+        this.buffer.putShort ( (short) e.getID ( ) );
+        this.buffer.putInt ( e.getKeyCode ( ) );
+        this.buffer.putChar ( e.getKeyChar ( ) );
+        this.buffer.putInt ( e.getModifiersEx ( ) );
+        this.buffer.put ( (byte) e.getKeyLocation ( ) );
+    }
+
+    private synchronized void record ( MouseEvent e ) {
+        if ( !this.begin ( MOUSE ) )
+            return;
+        this.buffer.putShort ( (short) e.getID ( ) );
+        this.buffer.putInt ( e.getX ( ) );
+        this.buffer.putInt ( e.getY ( ) );
+        this.buffer.putInt ( e.getModifiersEx ( ) );
+        this.buffer.put ( (byte) e.getButton ( ) );
+        this.buffer.putShort ( (short) e.getClickCount ( ) );
+    }
+
+    private synchronized void record ( FocusEvent e ) {
+        if ( !this.begin ( FOCUS ) )
+            return;
+        this.buffer.putShort ( (short) e.getID ( ) );
+        this.buffer.put ( (byte) ( e.isTemporary ( ) ? 1 : 0 ) );
+    }
+
+    @Override
+    public void keyPressed ( KeyEvent e ) {
+        this.record ( e );
+        if ( this.keyListener != null )
+            this.keyListener.keyPressed ( e );
+    }
+
+    @Override
+    public void keyReleased ( KeyEvent e ) {
+        this.record ( e );
+        if ( this.keyListener != null )
+            this.keyListener.keyReleased ( e );
+    }
+
+    @Override
+    public void keyTyped ( KeyEvent e ) {
+        this.record ( e );
+        if ( this.keyListener != null )
+            this.keyListener.keyTyped ( e );
+    }
+
+    @Override
+    public void mouseClicked ( MouseEvent e ) {
+        this.record ( e );
+        if ( this.mouseListener != null )
+            this.mouseListener.mouseClicked ( e );
+    }
+
+    @Override
+    public void mousePressed ( MouseEvent e ) {
+        this.record ( e );
+        if ( this.mouseListener != null )
+            this.mouseListener.mousePressed ( e );
+    }
+
+    @Override
+    public void mouseReleased ( MouseEvent e ) {
+        this.record ( e );
+        if ( this.mouseListener != null )
+            this.mouseListener.mouseReleased ( e );
+    }
+
+    @Override
+    public void mouseEntered ( MouseEvent e ) {
+        this.record ( e );
+        if ( this.mouseListener != null )
+            this.mouseListener.mouseEntered ( e );
+    }
+
+    @Override
+    public void mouseExited ( MouseEvent e ) {
+        this.record ( e );
+        if ( this.mouseListener != null )
+            this.mouseListener.mouseExited ( e );
+    }
+
+    @Override
+    public void mouseMoved ( MouseEvent e ) {
+        this.record ( e );
+        if ( this.mouseMotionListener != null )
+            this.mouseMotionListener.mouseMoved ( e );
+    }
+
+    @Override
+    public void mouseDragged ( MouseEvent e ) {
+        this.record ( e );
+        if ( this.mouseMotionListener != null )
+            this.mouseMotionListener.mouseDragged ( e );
+    }
+
+    @Override
+    public void focusGained ( FocusEvent e ) {
+        this.record ( e );
+        if ( this.focusListener != null )
+            this.focusListener.focusGained ( e );
+    }
+
+    @Override
+    public void focusLost ( FocusEvent e ) {
+        this.record ( e );
+        if ( this.focusListener != null )
+            this.focusListener.focusLost ( e );
+    }
+}
@@ -0,0 +1,77 @@
+package javax.game.sidescroller;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Which keys are currently held down
+ *
+ * Rather than reacting to every key event, sprites can simply check
+ * whether the keys they care about are down whenever they are ticked.
+ * Each key code is one bit in a fixed-size bitset, so updating and
+ * querying the state never locks or allocates, and is safe from any
+ * thread. Key codes outside the range of the bitset are ignored.
+ *
+ * @see Sprite#isKeyDown(int)
+ */
+public class KeyboardState {
+
+    /**
+     * Key codes below this are tracked
+     */
+    public static final int MAX_KEY_CODE = 1 << 16;
+
+    private final AtomicLongArray pressed = new AtomicLongArray ( MAX_KEY_CODE / 64 );
+
+    /**
+     * Marks the given key as held down
+     *
+     * @param code The key code, such as KeyEvent.VK_LEFT
+     */
+    public void press ( int code ) {
+        if ( code < 0 || code >= MAX_KEY_CODE )
+            return;
+
+        long bit = 1L << ( code & 63 );
+        long word;
+        do {
+            word = this.pressed.get ( code >>> 6 );
+        } while ( ( word & bit ) == 0 && !this.pressed.compareAndSet ( code >>> 6, word, word | bit ) );
+    }
+
+    /**
+     * Marks the given key as no longer held down
+     *
+     * @param code The key code, such as KeyEvent.VK_LEFT
+     */
+    public void release ( int code ) {
+        if ( code < 0 || code >= MAX_KEY_CODE )
+            return;
+
+        long bit = 1L << ( code & 63 );
+        long word;
+        do {
+            word = this.pressed.get ( code >>> 6 );
+        } while ( ( word & bit ) != 0 && !this.pressed.compareAndSet ( code >>> 6, word, word & ~bit ) );
+    }
+
+    /**
+     * Returns true if the given key is held down
+     *
+     * @param code The key code, such as KeyEvent.VK_LEFT
+     * @return true if the given key is held down
+     */
+    public boolean isDown ( int code ) {
+        if ( code < 0 || code >= MAX_KEY_CODE )
+            return false;
+        return ( this.pressed.get ( code >>> 6 ) & ( 1L << ( code & 63 ) ) ) != 0;
+    }
+
+    /**
+     * Marks all keys as released, for instance because the
+     * game lost focus and will not see the keys being released
+     */
+    public void clear ( ) {
+        for ( int i = 0; i < this.pressed.length ( ); i++ )
+            this.pressed.set ( i, 0 );
+    }
+}
@@ -0,0 +1,43 @@
+package javax.game.sidescroller;
+
+/**
+ * The different ways a GamePanel can drive its game loop
+ */
+public enum LoopMode {
+    /**
+     * Ticks and frames are driven by a javax.swing.Timer on the
+     * event dispatch thread. The game state is updated once every
+     * GamePanel.ticksPerUpdate frames, so simulation speed depends
+     * on how quickly frames are rendered. The Timer only has millisecond
+     * resolution, so frames are not evenly spaced at most frame rates.
+     */
+    TIMER,
+
+    /**
+     * Ticks are run at a fixed rate on a dedicated thread using
+     * System.nanoTime, independently of how long rendering takes.
+     * Frames are rendered with an interpolation factor between
+     * the last two ticks.
+     *
+     * @see GameLoop
+     */
+    FIXED_STEP,
+
+    /**
+     * Like {@link #FIXED_STEP}, but ticks are run on one thread and
+     * frames rendered on another. After every tick, the simulation
+     * thread captures what should be drawn into a snapshot, and the
+     * render thread draws the latest snapshot, so the next tick is
+     * computed while the last one is being rendered.
+     *
+     * Note that GamePanel.render(Graphics) is then called on the
+     * render thread, and must not rely on game state being updated
+     * at the same time. For the same reason, sprites are drawn from the
+     * image returned by Sprite.getSnapshotImage() rather than through
+     * Sprite.draw, so sprites that override draw should override
+     * getSnapshotImage as well.
+     *
+     * @see TripleBuffer
+     */
+    PIPELINED
+}
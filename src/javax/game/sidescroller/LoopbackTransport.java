@@ -0,0 +1,190 @@
+package javax.game.sidescroller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * A transport between two ends in the same process, for testing
+ * networked games on a single machine
+ *
+ * Packets sent from one end arrive at the other after the configured
+ * latency, plus a random amount of jitter, which may make them arrive out
+ * of order. A configurable fraction of them are lost along the way. Each
+ * end has its own settings, so the connection may be worse in one
+ * direction than the other.
+ *
+ * <pre>
+ * LoopbackTransport a = new LoopbackTransport ( );
+ * LoopbackTransport b = new LoopbackTransport ( );
+ * a.connect ( b );
+ * a.setLatency ( 60 );
+ * a.setJitter ( 20 );
+ * a.setLoss ( 0.05 );
+ * </pre>
+ */
+public class LoopbackTransport implements Transport {
+
+    /**
+     * A packet on its way to this end
+     */
+    private static class Packet implements Comparable<Packet> {
+        long due;
+        long sequence;
+        byte[] data;
+
+        @Override
+        public int compareTo ( Packet other ) {
+            if ( this.due != other.due )
+                return this.due < other.due ? -1 : 1;
+            return Long.compare ( this.sequence, other.sequence );
+        }
+    }
+
+    private LoopbackTransport peer;
+
+    /**
+     * Packets on their way to this end, in the order they will arrive
+     */
+    private final PriorityQueue<Packet> incoming = new PriorityQueue<Packet> ( );
+    private long sequence = 0;
+
+    /**
+     * How packets sent from this end are delayed and lost, in nanoseconds
+     */
+    private volatile long latency = 0;
+    private volatile long jitter = 0;
+    private volatile double loss = 0.0;
+
+    private final Random random;
+
+    private volatile boolean closed = false;
+    private volatile long sent = 0;
+    private volatile long lost = 0;
+
+    /**
+     * Creates a new, unconnected end with a perfect connection
+     */
+    public LoopbackTransport ( ) {
+        this ( System.nanoTime ( ) );
+    }
+
+    /**
+     * Creates a new, unconnected end with a perfect connection,
+     * that loses and delays packets the same way every time
+     *
+     * @param seed The seed for choosing which packets to lose and delay
+     */
+    public LoopbackTransport ( long seed ) {
+        this.random = new Random ( seed );
+    }
+
+    /**
+     * Connects this end and the given end to each other
+     *
+     * @param other The other end
+     */
+    public void connect ( LoopbackTransport other ) {
+        this.peer = other;
+        other.peer = this;
+    }
+
+    /**
+     * Sets how long packets sent from this end take to arrive
+     *
+     * @param millis The one-way latency in milliseconds
+     */
+    public void setLatency ( long millis ) {
+        this.latency = millis * 1000000L;
+    }
+
+    /**
+     * Sets the largest extra random delay of packets sent from this end
+     *
+     * @param millis The largest extra delay in milliseconds
+     */
+    public void setJitter ( long millis ) {
+        this.jitter = millis * 1000000L;
+    }
+
+    /**
+     * Sets the fraction of packets sent from this end that are lost
+     *
+     * @param loss The chance of losing each packet, between 0 and 1
+     */
+    public void setLoss ( double loss ) {
+        this.loss = loss;
+    }
+
+    /**
+     * Returns the number of packets sent from this end, including lost ones
+     *
+     * @return the number of packets sent
+     */
+    public long getSentCount ( ) {
+        return this.sent;
+    }
+
+    /**
+     * Returns the number of packets sent from this end that were lost
+     *
+     * @return the number of packets lost
+     */
+    public long getLostCount ( ) {
+        return this.lost;
+    }
+
+    @Override
+    public void send ( ByteBuffer packet ) throws IOException {
+        LoopbackTransport to = this.peer;
+        if ( this.closed || to == null || to.closed )
+            throw new IOException ( "Loopback transport is not connected" );
+
+        long delay;
+        synchronized ( this.random ) {
+            this.sent++;
+            if ( this.random.nextDouble ( ) < this.loss ) {
+                this.lost++;
+                packet.position ( packet.limit ( ) );
+                return;
+            }
+            delay = this.latency;
+            if ( this.jitter > 0 )
+                delay += (long) ( this.random.nextDouble ( ) * this.jitter );
+        }
+
+        Packet p = new Packet ( );
+        p.data = new byte[packet.remaining ( )];
+        packet.get ( p.data );
+        p.due = System.nanoTime ( ) + delay;
+        to.deliver ( p );
+    }
+
+    private synchronized void deliver ( Packet p ) {
+        p.sequence = this.sequence++;
+        this.incoming.add ( p );
+    }
+
+    @Override
+    public synchronized boolean receive ( ByteBuffer packet ) throws IOException {
+        if ( this.closed )
+            throw new IOException ( "Loopback transport is closed" );
+
+        Packet p = this.incoming.peek ( );
+        if ( p == null || p.due - System.nanoTime ( ) > 0 )
+            return false;
+        this.incoming.poll ( );
+
+        packet.clear ( );
+        packet.put ( p.data, 0, Math.min ( p.data.length, packet.remaining ( ) ) );
+        packet.flip ( );
+        return true;
+    }
+
+    @Override
+    public synchronized void close ( ) {
+        this.closed = true;
+        this.incoming.clear ( );
+    }
+}
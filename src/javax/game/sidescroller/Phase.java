@@ -0,0 +1,53 @@
+package javax.game.sidescroller;
+
+/**
+ * The phases of a game tick and a rendered frame that are timed by {@link FrameMetrics}
+ */
+public enum Phase {
+    /**
+     * The game's own tick(), computing the new position of the map
+     */
+    TICK,
+
+    /**
+     * Clamping the map position to the world and updating the ribbons
+     */
+    RIBBONS,
+
+    /**
+     * Calling tick() on every sprite
+     */
+    SPRITE_TICK,
+
+    /**
+     * Detecting sprites leaving the world and colliding with each other
+     */
+    COLLISIONS,
+
+    /**
+     * Removing sprites as a result of the collisions
+     */
+    REMOVAL,
+
+    /**
+     * Rendering a frame to the off-screen buffer
+     */
+    RENDER,
+
+    /**
+     * Putting the rendered frame on-screen
+     */
+    DRAW,
+
+    /**
+     * How late each frame was started compared to when it should
+     * have been, as measured by the {@link FramePacer} of the loop
+     */
+    JITTER,
+
+    /**
+     * Restoring an earlier state and running the ticks since again,
+     * when a {@link RollbackSession} gets input it did not predict
+     */
+    ROLLBACK
+}
@@ -0,0 +1,105 @@
+package javax.game.sidescroller;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A summary of the timings recorded for one {@link Phase}
+ *
+ * All times are in nanoseconds.
+ */
+public class PhaseStatistics {
+
+    private String phase;
+    private long count;
+    private double mean;
+    private long p50, p99, max;
+
+    /**
+     * Creates a summary from the given values
+     *
+     * @param phase The name of the phase
+     * @param count Number of times the phase was timed
+     * @param mean Average time taken
+     * @param p50 Median time taken
+     * @param p99 99th percentile of the time taken
+     * @param max Longest time taken
+     */
+    @ConstructorProperties ( { "phase", "count", "mean", "p50", "p99", "max" } )
+    public PhaseStatistics ( String phase, long count, double mean, long p50, long p99, long max ) {
+        this.phase = phase;
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * Summarizes the values recorded in the given histogram
+     *
+     * @param phase The phase the histogram timed
+     * @param h The histogram to summarize
+     */
+    public PhaseStatistics ( Phase phase, Histogram h ) {
+        this ( phase.name ( ), h.getCount ( ), h.getMean ( ), h.getPercentile ( 0.5 ), h.getPercentile ( 0.99 ), h.getMax ( ) );
+    }
+
+    /**
+     * Returns the name of the phase
+     *
+     * @return the name of the phase
+     */
+    public String getPhase ( ) {
+        return this.phase;
+    }
+
+    /**
+     * Returns the number of times the phase was timed
+     *
+     * @return the number of times the phase was timed
+     */
+    public long getCount ( ) {
+        return this.count;
+    }
+
+    /**
+     * Returns the average time taken
+     *
+     * @return the average time taken
+     */
+    public double getMean ( ) {
+        return this.mean;
+    }
+
+    /**
+     * Returns the median time taken
+     *
+     * @return the median time taken
+     */
+    public long getP50 ( ) {
+        return this.p50;
+    }
+
+    /**
+     * Returns the 99th percentile of the time taken
+     *
+     * @return the 99th percentile of the time taken
+     */
+    public long getP99 ( ) {
+        return this.p99;
+    }
+
+    /**
+     * Returns the longest time taken
+     *
+     * @return the longest time taken
+     */
+    public long getMax ( ) {
+        return this.max;
+    }
+
+    @Override
+    public String toString ( ) {
+        return String.format ( "%s: n=%d mean=%.0fns p50=%dns p99=%dns max=%dns", this.phase, this.count, this.mean, this.p50, this.p99, this.max );
+    }
+}
@@ -0,0 +1,178 @@
+package javax.game.sidescroller;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that rendering a frame allocates nothing once the game is running
+ *
+ * Renders frames of a small game with scrolling ribbons and moving sprites,
+ * and uses the allocation counters of the rendering threads to check that
+ * steady-state frames create no garbage for the collector to pause the game
+ * for. Frames are rendered by drawing every ribbon, through the scroll cache,
+ * and split into viewports. Rounds are repeated until the JIT has settled,
+ * and the check fails if no round gets down to zero bytes.
+ *
+ * <pre>
+ * java -Djava.awt.headless=true javax.game.sidescroller.RenderAllocationCheck
+ * </pre>
+ *
+ * Exits with status 1 if frames keep allocating.
+ */
+final class RenderAllocationCheck {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    /**
+     * Ticks per round, and frames rendered between each tick
+     */
+    private static final int TICKS = 200;
+    private static final int FRAMES = 4;
+
+    /**
+     * Rounds run before giving up on frames not allocating
+     */
+    private static final int ROUNDS = 100;
+
+    /**
+     * A sprite drawing a fixed image, as the animators
+     * of real sprites come from the media library
+     */
+    private static final class Block extends Sprite {
+
+        private final BufferedImage block;
+
+        Block ( BufferedImage block, Point position, Simulation world ) {
+            super ( null, position, world );
+            this.block = block;
+        }
+
+        @Override
+        public void draw ( Graphics g, Rectangle currentGameFrame, double alpha ) {
+            this.draw ( g, this.block, currentGameFrame, alpha );
+        }
+
+        @Override
+        public Rectangle getRectangle ( ) {
+            return new Rectangle ( this.position.x, this.position.y, this.block.getWidth ( ), this.block.getHeight ( ) );
+        }
+
+        @Override
+        public void keyPressed ( KeyEvent e ) {
+        }
+
+        @Override
+        public void keyReleased ( KeyEvent e ) {
+        }
+
+        @Override
+        public void keyTyped ( KeyEvent e ) {
+        }
+    }
+
+    private RenderAllocationCheck ( ) {
+    }
+
+    public static void main ( String[] args ) {
+        Ribbon back = new Ribbon ( image ( WIDTH * 2, HEIGHT, BufferedImage.TYPE_INT_RGB ), 0.5, 0.5, new Point ( 0, 0 ) );
+        Ribbon front = new Ribbon ( image ( WIDTH * 2, HEIGHT, BufferedImage.TYPE_INT_ARGB ), 1, 1, new Point ( 0, 0 ) );
+        RibbonsManager ribbons = new RibbonsManager ( );
+        ribbons.addRibbon ( back );
+        ribbons.addRibbon ( front );
+        SpriteManager sprites = new SpriteManager ( );
+
+        GamePanel game = new GamePanel ( new Dimension ( WIDTH, HEIGHT ), new Rectangle ( 0, 0, WIDTH * 8, HEIGHT ), ribbons, sprites, null, null, 50 ) {
+            private final Point camera = new Point ( 0, 0 );
+
+            @Override
+            public Point tick ( ) {
+                this.camera.x = ( this.camera.x + 3 ) % ( WIDTH * 7 );
+                return this.camera;
+            }
+        };
+
+        BufferedImage block = image ( 16, 16, BufferedImage.TYPE_INT_ARGB );
+        for ( int i = 0; i < 100; i++ ) {
+            Sprite s = new Block ( block, new Point ( i * 23, ( i * 37 ) % HEIGHT ), game.getSimulation ( ) );
+            s.setSpeed ( 1, 0 );
+            sprites.addSprite ( s );
+        }
+
+        BufferedImage screen = image ( WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB );
+        Graphics g = screen.createGraphics ( );
+
+        boolean allocates = !check ( "ribbons", game, g );
+
+        game.setScrollBlit ( true );
+        back.setScrollable ( true );
+        front.setScrollable ( true );
+        allocates |= !check ( "scroll cache", game, g );
+
+        game.addViewport ( new Viewport ( new Rectangle ( 0, 0, WIDTH / 2, HEIGHT ) ) );
+        game.addViewport ( new Viewport ( new Rectangle ( WIDTH / 2, 0, WIDTH / 2, HEIGHT ) ) );
+        allocates |= !check ( "viewports", game, g );
+        g.dispose ( );
+
+        System.exit ( allocates ? 1 : 0 );
+    }
+
+    /**
+     * Renders rounds of frames until one allocates nothing
+     *
+     * @return true if a round allocated nothing
+     */
+    private static boolean check ( String name, GamePanel game, Graphics g ) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ( );
+
+        // Viewports are rendered on threads started by the first frame
+        game.render ( g, null, 1.0 );
+        List<Thread> rendering = new ArrayList<Thread> ( );
+        rendering.add ( Thread.currentThread ( ) );
+        for ( Thread t : Thread.getAllStackTraces ( ).keySet ( ) )
+            if ( t.getName ( ).equals ( "GamePanel viewport" ) )
+                rendering.add ( t );
+        long[] ids = new long[rendering.size ( )];
+        for ( int i = 0; i < ids.length; i++ )
+            ids[i] = rendering.get ( i ).getId ( );
+
+        long allocated = 0;
+        for ( int round = 1; round <= ROUNDS; round++ ) {
+            allocated = 0;
+            for ( int t = 0; t < TICKS; t++ ) {
+                game.getSimulation ( ).step ( );
+
+                // Asked for one thread at a time, as asking for several allocates the result
+                for ( long id : ids )
+                    allocated -= threads.getThreadAllocatedBytes ( id );
+                for ( int f = 0; f < FRAMES; f++ )
+                    game.render ( g, null, (double) f / FRAMES );
+                for ( long id : ids )
+                    allocated += threads.getThreadAllocatedBytes ( id );
+            }
+
+            if ( allocated == 0 ) {
+                System.out.println ( name + ": no bytes allocated per frame after " + round + " rounds" );
+                return true;
+            }
+        }
+
+        System.out.println ( name + ": " + ( (double) allocated / ( TICKS * FRAMES ) ) + " bytes allocated per frame after " + ROUNDS + " rounds" );
+        return false;
+    }
+
+    private static BufferedImage image ( int width, int height, int type ) {
+        BufferedImage image = new BufferedImage ( width, height, type );
+        for ( int x = 0; x < width; x++ )
+            for ( int y = 0; y < height; y++ )
+                image.setRGB ( x, y, ( x * 7 + y * 13 ) % 256 == 0 ? 0 : 0xFF000000 | ( x * 0x010203 + y * 0x030201 ) );
+        return image;
+    }
+}
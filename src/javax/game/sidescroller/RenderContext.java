@@ -0,0 +1,113 @@
+package javax.game.sidescroller;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+/**
+ * The part of the game world a frame is rendered from
+ *
+ * Rather than creating a new Rectangle for the visible part of the map
+ * every frame, the renderer keeps one context, moves it to where the
+ * camera is at the start of every frame, and hands the same frame
+ * rectangle to every ribbon and sprite. Nothing is allocated, so
+ * rendering creates no garbage for the collector to pause the game for.
+ *
+ * The context is only valid while a frame is being rendered, and the
+ * frame rectangle must not be changed or kept.
+ *
+ * @see GamePanel#getRenderContext()
+ */
+public class RenderContext {
+
+    private final Rectangle frame = new Rectangle ( );
+    private double alpha = 1.0;
+
+    /**
+     * Moves the context to the given part of the game world
+     *
+     * @param x The left edge of the visible part of the map
+     * @param y The top edge of the visible part of the map
+     * @param width The width of the visible part of the map
+     * @param height The height of the visible part of the map
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    public void set ( int x, int y, int width, int height, double alpha ) {
+        this.frame.setBounds ( x, y, width, height );
+        this.alpha = alpha;
+    }
+
+    /**
+     * Moves the context alpha of the way between two camera positions
+     *
+     * @param previous The camera position before the last tick
+     * @param current The camera position after the last tick
+     * @param width The width of the visible part of the map
+     * @param height The height of the visible part of the map
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    public void interpolate ( Point previous, Point current, int width, int height, double alpha ) {
+        if ( alpha >= 1.0 )
+            this.set ( current.x, current.y, width, height, alpha );
+        else
+            this.set ( lerp ( previous.x, current.x, alpha ), lerp ( previous.y, current.y, alpha ), width, height, alpha );
+    }
+
+    /**
+     * Returns the visible part of the map.
+     * The same rectangle is returned every frame, so it must not be kept.
+     *
+     * @return the visible part of the map
+     */
+    public Rectangle getFrame ( ) {
+        return this.frame;
+    }
+
+    /**
+     * Returns the left edge of the visible part of the map
+     *
+     * @return the left edge of the visible part of the map
+     */
+    public int getX ( ) {
+        return this.frame.x;
+    }
+
+    /**
+     * Returns the top edge of the visible part of the map
+     *
+     * @return the top edge of the visible part of the map
+     */
+    public int getY ( ) {
+        return this.frame.y;
+    }
+
+    /**
+     * Returns the width of the visible part of the map
+     *
+     * @return the width of the visible part of the map
+     */
+    public int getWidth ( ) {
+        return this.frame.width;
+    }
+
+    /**
+     * Returns the height of the visible part of the map
+     *
+     * @return the height of the visible part of the map
+     */
+    public int getHeight ( ) {
+        return this.frame.height;
+    }
+
+    /**
+     * Returns how far the frame is between the last tick and the next
+     *
+     * @return how far we are between the last tick (0) and the next (1)
+     */
+    public double getAlpha ( ) {
+        return this.alpha;
+    }
+
+    private static int lerp ( int from, int to, double alpha ) {
+        return from + (int) Math.round ( ( to - from ) * alpha );
+    }
+}
@@ -0,0 +1,100 @@
+package javax.game.sidescroller;
+
+/**
+ * Adjusts the resolution frames are rendered at to keep frame times on target
+ *
+ * Keeps an exponentially weighted moving average of how long frames take.
+ * When it exceeds the target, the render scale is lowered one step at a
+ * time, down to minScale; when frames are comfortably faster than the
+ * target, it is raised again towards maxScale. Each change is given a
+ * few frames to show its effect before the next one is made.
+ *
+ * @see GamePanel#setResolutionScaler(ResolutionScaler)
+ */
+public class ResolutionScaler {
+
+    /**
+     * How much the scale is changed at a time
+     */
+    private static final double STEP = 0.05;
+
+    /**
+     * How much weight each new frame time gets in the average
+     */
+    private static final double WEIGHT = 0.1;
+
+    /**
+     * Wait this many frames after changing the scale before changing it again
+     */
+    private static final int COOLDOWN = 15;
+
+    /**
+     * Only raise the scale if frames take less than this fraction of the target
+     */
+    private static final double HEADROOM = 0.75;
+
+    private long target;
+    private double minScale, maxScale;
+
+    private volatile double scale;
+    private double frameTime = 0;
+    private int sinceChange = 0;
+
+    /**
+     * Creates a new scaler rendering at between 50% and 100% resolution
+     *
+     * @param target Target number of nanoseconds per frame
+     */
+    public ResolutionScaler ( long target ) {
+        this ( target, 0.5, 1.0 );
+    }
+
+    /**
+     * Creates a new scaler
+     *
+     * @param target Target number of nanoseconds per frame
+     * @param minScale Never render at less than this fraction of the full resolution
+     * @param maxScale Never render at more than this fraction of the full resolution
+     */
+    public ResolutionScaler ( long target, double minScale, double maxScale ) {
+        if ( minScale <= 0 || minScale > maxScale || maxScale > 1.0 )
+            throw new IllegalArgumentException ( "Scales must satisfy 0 < minScale <= maxScale <= 1" );
+
+        this.target = target;
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.scale = maxScale;
+    }
+
+    /**
+     * Returns the fraction of the full resolution the next frame should be rendered at
+     *
+     * @return the current render scale
+     */
+    public double getScale ( ) {
+        return this.scale;
+    }
+
+    /**
+     * Called after every frame to adjust the scale
+     *
+     * @param nanos How many nanoseconds the frame took to render and put on-screen
+     */
+    public void frameRendered ( long nanos ) {
+        this.frameTime += ( nanos - this.frameTime ) * WEIGHT;
+
+        if ( ++this.sinceChange < COOLDOWN )
+            return;
+
+        double scale = this.scale;
+        if ( this.frameTime > this.target )
+            scale = Math.max ( this.minScale, scale - STEP );
+        else if ( this.frameTime < this.target * HEADROOM )
+            scale = Math.min ( this.maxScale, scale + STEP );
+
+        if ( scale != this.scale ) {
+            this.scale = scale;
+            this.sinceChange = 0;
+        }
+    }
+}
@@ -32,6 +32,11 @@ public class Ribbon {
      */
     private RibbonsManager manager;
 
+    /**
+     * Whether this ribbon may be drawn by shifting what was drawn last frame
+     */
+    private boolean scrollable = false;
+
     /**
      * Creates a new Ribbon object with the given settings
      * 
@@ -64,38 +69,155 @@ public class Ribbon {
         this.manager = m;
     }
 
+    /**
+     * Allows this ribbon to be drawn by shifting its rendering from the
+     * previous frame, and only drawing the newly exposed edges.
+     * 
+     * Only ribbons at the bottom of the stack, and only those that move
+     * at the same scale as the bottom-most ribbon, are drawn this way.
+     * Ribbons whose image changes over time should not be scrollable.
+     * 
+     * @param scrollable Whether the ribbon may be drawn by shifting
+     * @see ScrollCache
+     */
+    public void setScrollable ( boolean scrollable ) {
+        this.scrollable = scrollable;
+    }
+
+    /**
+     * Returns true if this ribbon may be drawn by shifting its previous rendering
+     * 
+     * @return true if this ribbon may be drawn by shifting its previous rendering
+     */
+    public boolean isScrollable ( ) {
+        return this.scrollable;
+    }
+
+    /**
+     * Returns true if this ribbon moves at the same scale as the given ribbon
+     * 
+     * @param other The ribbon to compare with
+     * @return true if both ribbons have the same x and y scale
+     */
+    boolean scalesLike ( Ribbon other ) {
+        return this.xScale == other.xScale && this.yScale == other.yScale;
+    }
+
+    /**
+     * Returns the horizontal offset into this ribbon for the given frame, before wrapping
+     * 
+     * @param frame The visible part of the game world
+     * @return the horizontal offset into this ribbon
+     */
+    int getOffsetX ( Rectangle frame ) {
+        return (int) ( ( frame.x + this.origo.x ) * this.xScale );
+    }
+
+    /**
+     * Returns the vertical offset into this ribbon for the given frame, before wrapping
+     * 
+     * @param frame The visible part of the game world
+     * @return the vertical offset into this ribbon
+     */
+    int getOffsetY ( Rectangle frame ) {
+        return (int) ( ( frame.y + this.origo.y ) * this.yScale );
+    }
+
     public void display ( Graphics g ) {
         if ( this.manager == null )
             return;
 
-        Rectangle frame = this.manager.getFrame ( );
+        this.display ( g, this.manager.getFrame ( ) );
+    }
+
+    /**
+     * Draws this ribbon as seen from the given part of the game world
+     * 
+     * @param g Graphics context
+     * @param frame The visible part of the game world
+     */
+    public void display ( Graphics g, Rectangle frame ) {
+        if ( frame == null )
+            return;
+
+        this.display ( g, frame.x, frame.y, frame.width, frame.height );
+    }
 
+    /**
+     * Draws this ribbon as seen from the given part of the game world,
+     * without allocating anything
+     * 
+     * @param g Graphics context
+     * @param frameX The left edge of the visible part of the game world
+     * @param frameY The top edge of the visible part of the game world
+     * @param frameWidth The width of the visible part of the game world
+     * @param frameHeight The height of the visible part of the game world
+     */
+    public void display ( Graphics g, int frameX, int frameY, int frameWidth, int frameHeight ) {
+        this.display ( g, frameX, frameY, frameWidth, frameHeight, 0, 0, frameWidth, frameHeight );
+    }
+
+    /**
+     * Draws the part of this ribbon that falls within the given region of the
+     * frame. Clipping is done here, rather than through Graphics.setClip,
+     * as Java2D allocates whenever the clip changes.
+     * 
+     * @param g Graphics context
+     * @param frameX The left edge of the visible part of the game world
+     * @param frameY The top edge of the visible part of the game world
+     * @param frameWidth The width of the visible part of the game world
+     * @param frameHeight The height of the visible part of the game world
+     * @param clipX The left edge of the region to draw, relative to the frame
+     * @param clipY The top edge of the region to draw, relative to the frame
+     * @param clipWidth The width of the region to draw
+     * @param clipHeight The height of the region to draw
+     */
+    void display ( Graphics g, int frameX, int frameY, int frameWidth, int frameHeight, int clipX, int clipY, int clipWidth, int clipHeight ) {
         /**
          * Position should be made relative to the logical origo of the ribbon
-         * Also, points wrap around, and x/y position is scaled to simulate
-         * different ribbons moving at different speeds.
+         * Also, x/y position is scaled to simulate different ribbons
+         * moving at different speeds.
          */
-        Point position = (Point) frame.getLocation ( ).clone ( );
+        int offsetX = (int) ( ( frameX + this.origo.x ) * this.xScale );
+        int offsetY = (int) ( ( frameY + this.origo.y ) * this.yScale );
+        this.displayAt ( g, offsetX, offsetY, frameWidth, frameHeight, clipX, clipY, clipWidth, clipHeight );
+    }
+
+    /**
+     * Draws the part of this ribbon that falls within the given region,
+     * with the given offset into the ribbon at the top-left corner
+     * 
+     * @param g Graphics context
+     * @param offsetX The horizontal offset into this ribbon, before wrapping, as given by {@link #getOffsetX(Rectangle)}
+     * @param offsetY The vertical offset into this ribbon, before wrapping, as given by {@link #getOffsetY(Rectangle)}
+     * @param frameWidth The width of the area to draw the ribbon across
+     * @param frameHeight The height of the area to draw the ribbon across
+     * @param clipX The left edge of the region to draw
+     * @param clipY The top edge of the region to draw
+     * @param clipWidth The width of the region to draw
+     * @param clipHeight The height of the region to draw
+     */
+    void displayAt ( Graphics g, int offsetX, int offsetY, int frameWidth, int frameHeight, int clipX, int clipY, int clipWidth, int clipHeight ) {
+        GameEvents.RibbonEvent event = new GameEvents.RibbonEvent ( );
+        event.begin ( );
+        int pieces = 0;
 
-        position.translate ( this.origo.x, this.origo.y );
-        position.x = (int) ( position.x * this.xScale );
-        position.y = (int) ( position.y * this.yScale );
-        while ( position.x < 0 )
-            position.x += this.image.getWidth ( );
-        while ( position.y < 0 )
-            position.y += this.image.getHeight ( );
+        int iWidth = this.image.getWidth ( );
+        int iHeight = this.image.getHeight ( );
 
-        position.setLocation (
-                ( position.x ) % this.image.getWidth ( ),
-                ( position.y ) % this.image.getHeight ( ) );
+        // Points wrap around
+        int x = offsetX % iWidth;
+        int y = offsetY % iHeight;
+        if ( x < 0 )
+            x += iWidth;
+        if ( y < 0 )
+            y += iHeight;
 
         /**
          * We have to divide the image in to up to four pieces (if it wraps around both axes)
-         * We simply calculate the Rectangle for each piece, and skip drawing those that
+         * We simply calculate the size of each piece, and skip drawing those that
          * are empty or have negative width/height.
          */
-        Rectangle[] source = new Rectangle[4];
-        Rectangle[] destination = new Rectangle[4];
 
         /**
          * <pre>
@@ -128,44 +250,59 @@ public class Ribbon {
          * c = fWidth - a
          * d = fHeight - b
          */
-        int a = contain ( this.image.getWidth ( ) - position.x, 0, frame.width );
-        int b = contain ( this.image.getHeight ( ) - position.y, 0, frame.height );
-        int c = contain ( frame.width - a, 0, frame.width );
-        int d = contain ( frame.height - b, 0, frame.height );
+        int a = contain ( iWidth - x, 0, frameWidth );
+        int b = contain ( iHeight - y, 0, frameHeight );
+        int c = contain ( frameWidth - a, 0, frameWidth );
+        int d = contain ( frameHeight - b, 0, frameHeight );
 
         /**
          * TL
          */
-        source[0] = new Rectangle ( position.x, position.y, a, b );
-        destination[0] = new Rectangle ( 0, 0, a, b );
+        pieces += this.drawPiece ( g, x, y, 0, 0, a, b, clipX, clipY, clipX + clipWidth, clipY + clipHeight );
         /**
          * TR
          */
-        source[1] = new Rectangle ( 0, position.y, c, b );
-        destination[1] = new Rectangle ( a, 0, c, b );
+        pieces += this.drawPiece ( g, 0, y, a, 0, c, b, clipX, clipY, clipX + clipWidth, clipY + clipHeight );
         /**
          * BL
          */
-        source[2] = new Rectangle ( position.x, 0, a, d );
-        destination[2] = new Rectangle ( 0, b, a, d );
+        pieces += this.drawPiece ( g, x, 0, 0, b, a, d, clipX, clipY, clipX + clipWidth, clipY + clipHeight );
         /**
          * BR
          */
-        source[3] = new Rectangle ( 0, 0, c, d );
-        destination[3] = new Rectangle ( a, b, c, d );
-
-        for ( int i = 0; i < source.length; i++ ) {
-            Rectangle src = source[i];
-            Rectangle dst = destination[i];
-            if ( src.getWidth ( ) > 0 && src.getHeight ( ) > 0 )
-                g.drawImage (
-                        this.image,
-                        dst.x, dst.y, dst.x + dst.width, dst.y + dst.height,
-                        src.x, src.y, src.x + src.width, src.y + src.height,
-                        null );
+        pieces += this.drawPiece ( g, 0, 0, a, b, c, d, clipX, clipY, clipX + clipWidth, clipY + clipHeight );
+
+        event.end ( );
+        if ( event.shouldCommit ( ) ) {
+            event.width = frameWidth;
+            event.height = frameHeight;
+            event.pieces = pieces;
+            event.commit ( );
         }
     }
 
+    /**
+     * Draws the part of one piece of the ribbon image that falls
+     * within the given clip, unless that is empty
+     * 
+     * @return 1 if the piece was drawn, 0 otherwise
+     */
+    private int drawPiece ( Graphics g, int srcX, int srcY, int dstX, int dstY, int width, int height, int clipLeft, int clipTop, int clipRight, int clipBottom ) {
+        int left = Math.max ( dstX, clipLeft );
+        int top = Math.max ( dstY, clipTop );
+        int right = Math.min ( dstX + width, clipRight );
+        int bottom = Math.min ( dstY + height, clipBottom );
+        if ( right <= left || bottom <= top )
+            return 0;
+
+        g.drawImage (
+                this.image,
+                left, top, right, bottom,
+                srcX + left - dstX, srcY + top - dstY, srcX + right - dstX, srcY + bottom - dstY,
+                null );
+        return 1;
+    }
+
     public static int contain ( int value, int min, int max ) {
         if ( value > max )
             return value;
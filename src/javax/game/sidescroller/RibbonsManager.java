@@ -28,8 +28,45 @@ public class RibbonsManager {
     }
 
     public void display ( Graphics g ) {
-        for ( Ribbon r : this.ribbons )
-            r.display ( g );
+        this.display ( g, this.frame );
+    }
+
+    /**
+     * Draws all ribbons as seen from the given frame rather than
+     * the one last given to {@link #updatePosition(Rectangle)}
+     * 
+     * @param g Graphics context
+     * @param frame The visible part of the game world
+     */
+    public void display ( Graphics g, Rectangle frame ) {
+        if ( frame == null )
+            return;
+
+        for ( int i = 0; i < this.ribbons.size ( ); i++ )
+            this.ribbons.get ( i ).display ( g, frame.x, frame.y, frame.width, frame.height );
+    }
+
+    /**
+     * Draws all ribbons as seen from the given frame, using the
+     * given cache to avoid redrawing the bottom-most ribbons
+     * where they were already drawn in the previous frame,
+     * if that is faster than drawing them again.
+     * 
+     * If none of the ribbons can be cached, nothing is drawn.
+     * 
+     * @param g Graphics context
+     * @param frame The visible part of the game world
+     * @param cache The cache of previously drawn ribbons
+     * @return true if the ribbons were drawn, covering the entire frame
+     */
+    public boolean display ( Graphics g, Rectangle frame, ScrollCache cache ) {
+        int cached = cache.draw ( this.ribbons, g, frame );
+        if ( cached == 0 )
+            return false;
+
+        for ( int i = cached; i < this.ribbons.size ( ); i++ )
+            this.ribbons.get ( i ).display ( g, frame.x, frame.y, frame.width, frame.height );
+        return true;
     }
 
     public void addRibbon ( Ribbon r ) {
@@ -0,0 +1,467 @@
+package javax.game.sidescroller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a game in sync between players on different machines without
+ * waiting for their input, by rolling the game back when it arrives
+ *
+ * Every player's input for a tick is a single int, typically with one bit
+ * per button. The local player's input is sampled from the keyboard each
+ * tick, using the keys given to {@link #mapKey(int, int)}, and sent to the
+ * other players. When the input of another player has not yet arrived for
+ * the tick about to be run, it is predicted to be the same as the last
+ * input that did arrive. Should the real input turn out to be different,
+ * the game is restored to the state it was in before that tick, and the
+ * ticks since are run again with the right input, all before the next
+ * frame is rendered. The game should therefore read input only through
+ * {@link #getInput(int)}, from its tick methods, and never react directly
+ * to key events.
+ *
+ * The state of the game is saved before every tick, so restoring it is
+ * just a matter of copying a {@link WorldState} back. The session never
+ * rolls back further than its maximum rollback; if another player falls
+ * further behind than that, {@link #advance()} waits for them instead.
+ * Input may also be delayed by a few ticks, which makes rollbacks rarer
+ * and shorter at the cost of some responsiveness.
+ *
+ * All players must start from the same state, at the same tick, with the
+ * same number of players, input delay and key mapping.
+ *
+ * <pre>
+ * RollbackSession session = new RollbackSession ( game.getSimulation ( ), 2, 0 );
+ * session.mapKey ( KeyEvent.VK_LEFT, LEFT );
+ * session.mapKey ( KeyEvent.VK_RIGHT, RIGHT );
+ * session.addPeer ( 1, transport );
+ * game.setRollback ( session );
+ * </pre>
+ *
+ * @see GamePanel#setRollback(RollbackSession)
+ * @see LoopbackTransport
+ */
+public class RollbackSession {
+
+    /**
+     * Number of ticks of input kept for each player, a power of two
+     */
+    static final int HISTORY = 256;
+    private static final int MASK = HISTORY - 1;
+
+    /**
+     * Most ticks of input sent in one packet
+     */
+    private static final int MAX_SEND = HISTORY / 4;
+
+    /**
+     * Size of a packet header: player, ack, first tick and number of inputs
+     */
+    private static final int HEADER = 1 + 8 + 8 + 2;
+
+    /**
+     * Most players in one session
+     */
+    public static final int MAX_PLAYERS = 64;
+
+    /**
+     * Number of ticks input is delayed by default
+     */
+    public static final int DEFAULT_INPUT_DELAY = 2;
+
+    /**
+     * Most ticks rolled back by default
+     */
+    public static final int DEFAULT_MAX_ROLLBACK = 8;
+
+    /**
+     * Another player, and how to reach them
+     */
+    private static class Peer {
+        Transport transport;
+        int player;
+
+        /**
+         * The last tick of our input they have confirmed receiving
+         */
+        long acked;
+    }
+
+    private final Simulation simulation;
+    private final int players;
+    private final int localPlayer;
+    private final int inputDelay;
+    private final int maxRollback;
+
+    /**
+     * The input of each player for the last HISTORY ticks.
+     * For ticks that have been run before the input of a player
+     * arrived, this is the input that was predicted.
+     */
+    private final int[][] inputs;
+
+    /**
+     * The last tick the input of each player is known for
+     */
+    private final long[] confirmed;
+
+    /**
+     * The state of the game before each of the last ticks
+     */
+    private final WorldState[] states;
+
+    private final List<Peer> peers = new ArrayList<Peer> ( );
+    private final ByteBuffer packet = ByteBuffer.allocate ( HEADER + MAX_SEND * 4 );
+
+    /**
+     * The first tick that was run with input that turned out to be wrong
+     */
+    private long rollbackTo = Long.MAX_VALUE;
+
+    /**
+     * Keys sampled for the local player's input, and the bits they set
+     */
+    private int[] keys = new int[0];
+    private int[] bits = new int[0];
+
+    private volatile long rollbacks = 0;
+    private volatile long resimulated = 0;
+    private volatile long stalls = 0;
+
+    /**
+     * Creates a new session with the default input delay and maximum rollback
+     *
+     * @param simulation The game to keep in sync
+     * @param players The number of players
+     * @param localPlayer Which player is on this machine, from 0
+     */
+    public RollbackSession ( Simulation simulation, int players, int localPlayer ) {
+        this ( simulation, players, localPlayer, DEFAULT_INPUT_DELAY, DEFAULT_MAX_ROLLBACK );
+    }
+
+    /**
+     * Creates a new session, starting at the game's current tick
+     *
+     * @param simulation The game to keep in sync
+     * @param players The number of players
+     * @param localPlayer Which player is on this machine, from 0
+     * @param inputDelay Number of ticks between sampling input and using it
+     * @param maxRollback Most ticks to roll back before waiting for other players
+     */
+    public RollbackSession ( Simulation simulation, int players, int localPlayer, int inputDelay, int maxRollback ) {
+        if ( players < 1 || players > MAX_PLAYERS )
+            throw new IllegalArgumentException ( "Invalid number of players " + players );
+        if ( localPlayer < 0 || localPlayer >= players )
+            throw new IllegalArgumentException ( "Invalid local player " + localPlayer );
+        if ( inputDelay < 0 || maxRollback < 1 || inputDelay + maxRollback > MAX_SEND )
+            throw new IllegalArgumentException ( "Input delay and maximum rollback must be within " + MAX_SEND + " ticks" );
+
+        this.simulation = simulation;
+        this.players = players;
+        this.localPlayer = localPlayer;
+        this.inputDelay = inputDelay;
+        this.maxRollback = maxRollback;
+
+        // Nobody has any input until the input delay has passed
+        long start = simulation.getTickCount ( );
+        this.inputs = new int[players][HISTORY];
+        this.confirmed = new long[players];
+        for ( int p = 0; p < players; p++ )
+            this.confirmed[p] = start + inputDelay - 1;
+
+        this.states = new WorldState[maxRollback + 1];
+        for ( int i = 0; i < this.states.length; i++ )
+            this.states[i] = new WorldState ( );
+    }
+
+    /**
+     * Adds another player to send our input to and receive theirs from
+     *
+     * @param player Which player is at the other end
+     * @param transport The transport connecting us to them
+     */
+    public void addPeer ( int player, Transport transport ) {
+        if ( player < 0 || player >= this.players || player == this.localPlayer )
+            throw new IllegalArgumentException ( "Invalid remote player " + player );
+
+        Peer peer = new Peer ( );
+        peer.transport = transport;
+        peer.player = player;
+        peer.acked = this.confirmed[this.localPlayer];
+        this.peers.add ( peer );
+    }
+
+    /**
+     * Makes the given key set the given bits of the local player's
+     * input while it is held down
+     *
+     * @param code The key code, such as KeyEvent.VK_LEFT
+     * @param bits The bits of the input to set
+     */
+    public void mapKey ( int code, int bits ) {
+        int n = this.keys.length;
+        int[] keys = new int[n + 1];
+        int[] values = new int[n + 1];
+        System.arraycopy ( this.keys, 0, keys, 0, n );
+        System.arraycopy ( this.bits, 0, values, 0, n );
+        keys[n] = code;
+        values[n] = bits;
+        this.keys = keys;
+        this.bits = values;
+    }
+
+    /**
+     * Returns the input of the local player for the coming tick.
+     * Default implementation combines the bits of every mapped key that is
+     * held down, according to the keyboard state of the game's sprites.
+     *
+     * @return the local player's input
+     */
+    protected int readLocalInput ( ) {
+        SpriteManager sprites = this.simulation.getSprites ( );
+        if ( sprites == null )
+            return 0;
+
+        KeyboardState keyboard = sprites.getKeyboard ( );
+        int input = 0;
+        for ( int i = 0; i < this.keys.length; i++ )
+            if ( keyboard.isDown ( this.keys[i] ) )
+                input |= this.bits[i];
+        return input;
+    }
+
+    /**
+     * Returns the input of the given player for the tick being run.
+     * Only meaningful while the game is ticking.
+     *
+     * @param player Which player, from 0
+     * @return the player's input, or the prediction of it
+     */
+    public int getInput ( int player ) {
+        return this.inputs[player][(int) this.simulation.getTickCount ( ) & MASK];
+    }
+
+    /**
+     * Runs the next game tick, first rolling back and running earlier
+     * ticks again if input has arrived that differs from what was predicted.
+     * Takes the place of {@link Simulation#step()}.
+     *
+     * @return false if the tick could not be run because another player is too far behind
+     */
+    public boolean advance ( ) {
+        this.receive ( );
+
+        long tick = this.simulation.getTickCount ( );
+        if ( this.rollbackTo < tick )
+            this.rollback ( this.rollbackTo, tick );
+        this.rollbackTo = Long.MAX_VALUE;
+
+        // Never get further ahead of anyone than we can roll back
+        for ( Peer peer : this.peers ) {
+            if ( tick - this.confirmed[peer.player] > this.maxRollback ) {
+                this.stalls++;
+                this.send ( );
+                return false;
+            }
+        }
+
+        long t = tick + this.inputDelay;
+        this.inputs[this.localPlayer][(int) t & MASK] = this.readLocalInput ( );
+        this.confirmed[this.localPlayer] = t;
+        this.send ( );
+
+        this.run ( tick );
+        return true;
+    }
+
+    /**
+     * Runs the given tick, predicting any input that has not arrived
+     *
+     * @param tick The tick to run
+     */
+    private void run ( long tick ) {
+        int i = (int) tick & MASK;
+        for ( int p = 0; p < this.players; p++ )
+            if ( this.confirmed[p] < tick )
+                this.inputs[p][i] = this.inputs[p][(int) this.confirmed[p] & MASK];
+
+        this.simulation.saveState ( this.states[(int) ( tick % this.states.length )] );
+        this.simulation.step ( );
+    }
+
+    /**
+     * Restores the state before the given tick and runs the ticks since again
+     *
+     * @param from The first tick to run again
+     * @param to The tick we were about to run
+     */
+    private void rollback ( long from, long to ) {
+        long start = System.nanoTime ( );
+
+        this.simulation.restoreState ( this.states[(int) ( from % this.states.length )] );
+        for ( long t = from; t < to; t++ )
+            this.run ( t );
+
+        this.rollbacks++;
+        this.resimulated += to - from;
+        this.simulation.getMetrics ( ).recordSince ( Phase.ROLLBACK, start );
+    }
+
+    /**
+     * Reads every packet that has arrived from the other players
+     */
+    private void receive ( ) {
+        for ( Peer peer : this.peers ) {
+            try {
+                while ( peer.transport.receive ( this.packet ) )
+                    this.read ( peer, this.packet );
+            } catch ( IOException e ) {
+                System.out.println ( "Could not receive input from player " + peer.player + ": " + e );
+            }
+        }
+    }
+
+    private void read ( Peer peer, ByteBuffer packet ) {
+        if ( packet.remaining ( ) < HEADER )
+            return;
+
+        int player = packet.get ( ) & 0xff;
+        long ack = packet.getLong ( );
+        long first = packet.getLong ( );
+        int count = packet.getShort ( ) & 0xffff;
+        if ( player != peer.player || packet.remaining ( ) < count * 4 )
+            return;
+
+        peer.acked = Math.max ( peer.acked, ack );
+
+        long current = this.simulation.getTickCount ( );
+        for ( int n = 0; n < count; n++ ) {
+            long t = first + n;
+            int input = packet.getInt ( );
+            if ( t <= this.confirmed[player] )
+                continue;
+
+            // Input must be taken in order, and not so far ahead that it overwrites input still needed
+            if ( t != this.confirmed[player] + 1 || t - current >= HISTORY / 2 )
+                break;
+
+            int i = (int) t & MASK;
+            if ( t < current && this.inputs[player][i] != input )
+                this.rollbackTo = Math.min ( this.rollbackTo, t );
+            this.inputs[player][i] = input;
+            this.confirmed[player] = t;
+        }
+    }
+
+    /**
+     * Sends every player the local input they have not confirmed receiving
+     */
+    private void send ( ) {
+        long last = this.confirmed[this.localPlayer];
+        int[] local = this.inputs[this.localPlayer];
+
+        for ( Peer peer : this.peers ) {
+            long first = Math.max ( peer.acked + 1, last - MAX_SEND + 1 );
+            int count = (int) Math.max ( 0, last - first + 1 );
+
+            this.packet.clear ( );
+            this.packet.put ( (byte) this.localPlayer );
+            this.packet.putLong ( this.confirmed[peer.player] );
+            this.packet.putLong ( first );
+            this.packet.putShort ( (short) count );
+            for ( long t = first; t <= last; t++ )
+                this.packet.putInt ( local[(int) t & MASK] );
+            this.packet.flip ( );
+
+            try {
+                peer.transport.send ( this.packet );
+            } catch ( IOException e ) {
+                System.out.println ( "Could not send input to player " + peer.player + ": " + e );
+            }
+        }
+    }
+
+    /**
+     * Returns the last tick the input of the given player is known for
+     *
+     * @param player Which player, from 0
+     * @return the last tick with confirmed input
+     */
+    public long getConfirmedTick ( int player ) {
+        return this.confirmed[player];
+    }
+
+    /**
+     * Returns the game kept in sync
+     *
+     * @return the game kept in sync
+     */
+    public Simulation getSimulation ( ) {
+        return this.simulation;
+    }
+
+    /**
+     * Returns which player is on this machine
+     *
+     * @return the local player, from 0
+     */
+    public int getLocalPlayer ( ) {
+        return this.localPlayer;
+    }
+
+    /**
+     * Returns the number of players
+     *
+     * @return the number of players
+     */
+    public int getPlayers ( ) {
+        return this.players;
+    }
+
+    /**
+     * Returns the number of ticks between sampling input and using it
+     *
+     * @return the input delay in ticks
+     */
+    public int getInputDelay ( ) {
+        return this.inputDelay;
+    }
+
+    /**
+     * Returns the most ticks rolled back before waiting for other players
+     *
+     * @return the maximum rollback in ticks
+     */
+    public int getMaxRollback ( ) {
+        return this.maxRollback;
+    }
+
+    /**
+     * Returns the number of times the game was rolled back
+     *
+     * @return the number of rollbacks
+     */
+    public long getRollbackCount ( ) {
+        return this.rollbacks;
+    }
+
+    /**
+     * Returns the number of ticks run again after rolling back
+     *
+     * @return the number of ticks run again
+     */
+    public long getResimulatedTicks ( ) {
+        return this.resimulated;
+    }
+
+    /**
+     * Returns the number of ticks that could not be run because
+     * another player was too far behind
+     *
+     * @return the number of ticks spent waiting for other players
+     */
+    public long getStallCount ( ) {
+        return this.stalls;
+    }
+}
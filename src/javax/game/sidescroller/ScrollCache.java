@@ -0,0 +1,372 @@
+package javax.game.sidescroller;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.List;
+
+/**
+ * Keeps the last rendering of the bottom ribbon layers around, so that
+ * when the camera moves only the newly exposed edges have to be drawn
+ *
+ * The bottom-most ribbons that allow it (see {@link Ribbon#setScrollable(boolean)})
+ * and that move at the same scale as the very first one are rendered into
+ * a cached image. The image wraps around in both directions, so when all
+ * of them moved by the same number of pixels, the cache is not shifted.
+ * Instead, only the strips along the edges that came into view are drawn,
+ * over the ones that went out of view, and the cache is copied onto the
+ * frame in up to four pieces starting from the new top-left corner.
+ * Any other ribbons are drawn on top as usual.
+ *
+ * Copying the cache onto the frame still touches every pixel of it, so the
+ * cache only pays off when that is cheaper than clearing the frame and
+ * drawing the cached ribbons directly, such as when there are several of
+ * them or they are translucent. Every so often, the cache times a few frames
+ * drawn each way, and keeps using whichever was faster. Like the back buffer,
+ * the cached image is a VolatileImage when that is accelerated, and an image
+ * compatible with what it is drawn to otherwise.
+ *
+ * @see GamePanel#setScrollBlit(boolean)
+ */
+public class ScrollCache {
+
+    /**
+     * Frames timed each way whenever the two are compared,
+     * and how many frames apart the comparisons are
+     */
+    private static final int TRIAL = 16;
+    private static final int PERIOD = 1024;
+
+    private int width, height;
+
+    /**
+     * The cached image is one of these, depending on
+     * whether a VolatileImage would be accelerated
+     */
+    private VolatileImage volatileImage;
+    private BufferedImage bufferedImage;
+    private Graphics2D graphics;
+
+    /**
+     * The configuration the image was created for
+     */
+    private GraphicsConfiguration configuration;
+
+    /**
+     * Where in the cached image the top-left corner of the frame is
+     */
+    private int originX = 0, originY = 0;
+
+    /**
+     * Number of ribbons currently in the cached image,
+     * and the offsets they were drawn at
+     */
+    private int cached = 0;
+    private int[] offsetX = new int[0];
+    private int[] offsetY = new int[0];
+
+    /**
+     * Frames drawn so far, nanoseconds spent drawing ribbons through the
+     * cache and directly during the last comparison, and whether the cache
+     * won it
+     */
+    private long frames = 0;
+    private long cachedTime = 0;
+    private long directTime = 0;
+    private volatile boolean used = true;
+
+    /**
+     * Number of pixels written by the cache
+     */
+    private long pixelsDrawn = 0;
+
+    /**
+     * Creates a new cache for frames of the given size
+     *
+     * @param width Width of a frame
+     * @param height Height of a frame
+     */
+    public ScrollCache ( int width, int height ) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Draws the bottom-most ribbons that can be cached, either through the
+     * cache or directly, whichever was faster when last compared. Either way,
+     * the entire frame is covered.
+     *
+     * @param ribbons All ribbons, bottom-most first
+     * @param g Graphics context
+     * @param frame The visible part of the game world
+     * @return The number of bottom-most ribbons drawn, 0 if none of them can be cached
+     */
+    int draw ( List<Ribbon> ribbons, Graphics g, Rectangle frame ) {
+        int n = 0;
+        while ( n < ribbons.size ( ) && ribbons.get ( n ).isScrollable ( ) && ribbons.get ( n ).scalesLike ( ribbons.get ( 0 ) ) )
+            n++;
+
+        if ( n == 0 ) {
+            this.cached = 0;
+            return 0;
+        }
+
+        // Compare the first TRIAL frames of every PERIOD drawn through the cache with the next TRIAL drawn directly
+        int phase = (int) ( this.frames++ % PERIOD );
+        boolean timed = phase < 2 * TRIAL;
+        long start = System.nanoTime ( );
+
+        if ( timed ? phase < TRIAL : this.used ) {
+            if ( !this.drawCached ( ribbons, n, g, frame ) )
+                this.drawDirect ( ribbons, n, g, frame );
+        } else {
+            this.drawDirect ( ribbons, n, g, frame );
+        }
+
+        if ( timed ) {
+            long time = System.nanoTime ( ) - start;
+
+            // The first frame each way catches up with the other, and is not counted
+            if ( phase == 0 ) {
+                this.cachedTime = 0;
+                this.directTime = 0;
+            } else if ( phase < TRIAL ) {
+                this.cachedTime += time;
+            } else if ( phase > TRIAL ) {
+                this.directTime += time;
+            }
+
+            if ( phase == 2 * TRIAL - 1 )
+                this.used = this.cachedTime <= this.directTime;
+        }
+        return n;
+    }
+
+    /**
+     * Clears the frame and draws the first n ribbons onto it
+     */
+    private void drawDirect ( List<Ribbon> ribbons, int n, Graphics g, Rectangle frame ) {
+        // The cache falls behind while it isn't used
+        this.cached = 0;
+
+        g.setColor ( Color.white );
+        g.fillRect ( 0, 0, this.width, this.height );
+        for ( int i = 0; i < n; i++ )
+            ribbons.get ( i ).display ( g, frame.x, frame.y, frame.width, frame.height );
+
+        this.pixelsDrawn += (long) ( n + 1 ) * this.width * this.height;
+    }
+
+    /**
+     * Brings the cache up to date with the given frame, and copies it onto the frame
+     *
+     * @return false if the contents of the cache were lost, and the ribbons must be drawn directly
+     */
+    private boolean drawCached ( List<Ribbon> ribbons, int n, Graphics g, Rectangle frame ) {
+        this.validate ( g instanceof Graphics2D ? ( (Graphics2D) g ).getDeviceConfiguration ( ) : null );
+        this.update ( ribbons, n, frame );
+        this.copyTo ( g );
+
+        if ( this.volatileImage != null && this.volatileImage.contentsLost ( ) ) {
+            this.cached = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Makes sure the cached image exists and can be drawn to the given configuration
+     */
+    private void validate ( GraphicsConfiguration gc ) {
+        if ( gc != this.configuration ) {
+            this.release ( );
+            this.configuration = gc;
+        }
+
+        if ( this.volatileImage == null && this.bufferedImage == null )
+            this.create ( );
+
+        if ( this.volatileImage != null ) {
+            int status = this.volatileImage.validate ( this.configuration );
+            if ( status == VolatileImage.IMAGE_INCOMPATIBLE ) {
+                this.release ( );
+                this.create ( );
+            } else if ( status == VolatileImage.IMAGE_RESTORED ) {
+                this.graphics.dispose ( );
+                this.graphics = this.volatileImage.createGraphics ( );
+                this.cached = 0;
+            }
+        }
+    }
+
+    private void create ( ) {
+        this.cached = 0;
+
+        if ( this.configuration != null ) {
+            try {
+                VolatileImage image = this.configuration.createCompatibleVolatileImage ( this.width, this.height );
+                if ( image.getCapabilities ( ).isAccelerated ( ) ) {
+                    this.volatileImage = image;
+                    this.graphics = image.createGraphics ( );
+                    return;
+                }
+                // Software pipeline, so a managed image is just as good
+                image.flush ( );
+            } catch ( RuntimeException e ) {
+                System.out.println ( "Could not create volatile scroll cache: " + e );
+            }
+            this.bufferedImage = this.configuration.createCompatibleImage ( this.width, this.height );
+        } else {
+            this.bufferedImage = new BufferedImage ( this.width, this.height, BufferedImage.TYPE_INT_RGB );
+        }
+        this.graphics = this.bufferedImage.createGraphics ( );
+    }
+
+    private void release ( ) {
+        if ( this.graphics != null )
+            this.graphics.dispose ( );
+        if ( this.volatileImage != null )
+            this.volatileImage.flush ( );
+        this.graphics = null;
+        this.volatileImage = null;
+        this.bufferedImage = null;
+    }
+
+    /**
+     * Redraws whatever part of the first n ribbons has changed since the last frame
+     */
+    private void update ( List<Ribbon> ribbons, int n, Rectangle frame ) {
+        boolean full = n != this.cached;
+        if ( full ) {
+            this.offsetX = new int[n];
+            this.offsetY = new int[n];
+        }
+
+        // Every cached ribbon must have moved by the same amount for a shift to be correct
+        int dx = 0, dy = 0;
+        for ( int i = 0; i < n; i++ ) {
+            Ribbon r = ribbons.get ( i );
+            int x = r.getOffsetX ( frame );
+            int y = r.getOffsetY ( frame );
+            if ( i == 0 ) {
+                dx = x - this.offsetX[i];
+                dy = y - this.offsetY[i];
+            } else if ( x - this.offsetX[i] != dx || y - this.offsetY[i] != dy ) {
+                full = true;
+            }
+            this.offsetX[i] = x;
+            this.offsetY[i] = y;
+        }
+
+        if ( full || Math.abs ( dx ) >= this.width || Math.abs ( dy ) >= this.height ) {
+            this.originX = 0;
+            this.originY = 0;
+            this.redraw ( ribbons, n, 0, 0, this.width, this.height );
+        } else if ( dx != 0 || dy != 0 ) {
+            // What is now at the top-left corner of the frame was dx, dy into the last one
+            this.originX = Math.floorMod ( this.originX + dx, this.width );
+            this.originY = Math.floorMod ( this.originY + dy, this.height );
+
+            // Columns that scrolled into view, followed by rows (minus the corner already drawn)
+            int columnsX = dx > 0 ? this.width - dx : 0;
+            int columns = Math.abs ( dx );
+            if ( columns > 0 )
+                this.redraw ( ribbons, n, columnsX, 0, columns, this.height );
+
+            int rowsY = dy > 0 ? this.height - dy : 0;
+            int rows = Math.abs ( dy );
+            int rowsX = dx < 0 ? columns : 0;
+            if ( rows > 0 )
+                this.redraw ( ribbons, n, rowsX, rowsY, this.width - columns, rows );
+        }
+
+        this.cached = n;
+    }
+
+    /**
+     * Copies the cache onto the frame, in up to four pieces
+     * as the frame may wrap around either edge of the cache
+     */
+    private void copyTo ( Graphics g ) {
+        Image image = this.volatileImage != null ? this.volatileImage : this.bufferedImage;
+        int right = this.width - this.originX;
+        int bottom = this.height - this.originY;
+
+        copy ( g, image, 0, 0, this.originX, this.originY, right, bottom );
+        copy ( g, image, right, 0, 0, this.originY, this.originX, bottom );
+        copy ( g, image, 0, bottom, this.originX, 0, right, this.originY );
+        copy ( g, image, right, bottom, 0, 0, this.originX, this.originY );
+
+        this.pixelsDrawn += (long) this.width * this.height;
+    }
+
+    private static void copy ( Graphics g, Image image, int dstX, int dstY, int srcX, int srcY, int width, int height ) {
+        if ( width > 0 && height > 0 )
+            g.drawImage ( image, dstX, dstY, dstX + width, dstY + height, srcX, srcY, srcX + width, srcY + height, null );
+    }
+
+    /**
+     * Makes the next frame redraw every cached ribbon
+     */
+    public void invalidate ( ) {
+        this.cached = 0;
+    }
+
+    /**
+     * Returns true if the ribbons are currently drawn through the cache,
+     * as that was faster than drawing them directly when last compared
+     *
+     * @return true if the cache is in use
+     */
+    public boolean isUsed ( ) {
+        return this.used;
+    }
+
+    /**
+     * Returns how many pixels have been written by the cache so far.
+     * Every pixel of the cache copied onto a frame is counted, as is every
+     * pixel cleared or drawn by each ribbon, whether into the cache or
+     * directly onto a frame when the cache is not used.
+     *
+     * @return how many pixels have been written by the cache so far
+     */
+    public long getPixelsDrawn ( ) {
+        return this.pixelsDrawn;
+    }
+
+    /**
+     * Redraws the given region of the frame in the cache from the first n
+     * ribbons, in up to four pieces as it may wrap around the cache's edges
+     */
+    private void redraw ( List<Ribbon> ribbons, int n, int x, int y, int w, int h ) {
+        int cacheX = ( x + this.originX ) % this.width;
+        int cacheY = ( y + this.originY ) % this.height;
+        int left = Math.min ( w, this.width - cacheX );
+        int top = Math.min ( h, this.height - cacheY );
+
+        this.redraw ( ribbons, n, x, y, cacheX, cacheY, left, top );
+        this.redraw ( ribbons, n, x + left, y, 0, cacheY, w - left, top );
+        this.redraw ( ribbons, n, x, y + top, cacheX, 0, left, h - top );
+        this.redraw ( ribbons, n, x + left, y + top, 0, 0, w - left, h - top );
+
+        this.pixelsDrawn += (long) ( n + 1 ) * w * h;
+    }
+
+    /**
+     * Redraws the region of the frame at x, y into the cache at cacheX, cacheY
+     */
+    private void redraw ( List<Ribbon> ribbons, int n, int x, int y, int cacheX, int cacheY, int w, int h ) {
+        if ( w <= 0 || h <= 0 )
+            return;
+
+        this.graphics.setColor ( Color.white );
+        this.graphics.fillRect ( cacheX, cacheY, w, h );
+        for ( int i = 0; i < n; i++ )
+            ribbons.get ( i ).displayAt ( this.graphics, this.offsetX[i] + x - cacheX, this.offsetY[i] + y - cacheY, this.width, this.height, cacheX, cacheY, w, h );
+    }
+}
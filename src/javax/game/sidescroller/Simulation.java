@@ -0,0 +1,449 @@
+package javax.game.sidescroller;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The game state of a side-scrolling game, without any rendering
+ *
+ * This handles everything a game tick involves:
+ * - Handing out input that arrived since the last tick
+ * - Asking the game for the new position of the map
+ * - Keeping the visible part of the map within the game world
+ * - Sending ticks to managers
+ *
+ * GamePanel wraps a Simulation and adds a window, a loop and
+ * rendering, but a Simulation can also be used on its own, for
+ * instance to run a game without a display (java.awt.headless)
+ * as fast as the CPU allows using {@link #run(long)}, or at a
+ * fixed rate using a {@link GameLoop}.
+ */
+public abstract class Simulation {
+
+    private Dimension viewportSize;
+    private Rectangle worldArea;
+    private RibbonsManager ribbons;
+    private SpriteManager sprites;
+
+    /**
+     * The current in-game position.
+     * This should indicates the position of the top-left
+     * corner of the visible part of the current game's map.
+     * All other positions in the javax.game.sidescroller
+     * package are based on this coordinate system.
+     */
+    private final Point position;
+
+    /**
+     * The in-game position before the last tick.
+     * Used to interpolate the camera between ticks.
+     */
+    private final Point previousPosition;
+
+    /**
+     * Number of ticks run so far
+     */
+    private volatile long ticks = 0;
+
+    /**
+     * Timings of each phase of a tick
+     */
+    private FrameMetrics metrics;
+
+    /**
+     * Additional cameras looking at the game world
+     */
+    private List<Viewport> viewports = new CopyOnWriteArrayList<Viewport> ( );
+
+    /**
+     * Input waiting to be handed out at the start of the next tick, if any
+     */
+    private volatile InputQueue input;
+
+    /**
+     * Source of all randomness in the game, so that it can be recorded
+     */
+    private GameRandom random = new GameRandom ( );
+
+    /**
+     * Creates a new simulation using the given managers
+     *
+     * None of the managers need to be passed, but they are usually useful.
+     * worldArea may be set to null for no size limit.
+     *
+     * @param viewportSize The size of the visible part of the map
+     * @param worldArea The world area, null for unlimited
+     * @param ribbons The ribbon manager to use
+     * @param sprites The sprite manager to use
+     */
+    public Simulation ( Dimension viewportSize, Rectangle worldArea, RibbonsManager ribbons, SpriteManager sprites ) {
+        this.viewportSize = new Dimension ( viewportSize );
+        this.worldArea = worldArea;
+        this.ribbons = ribbons;
+        this.sprites = sprites;
+        this.metrics = new FrameMetrics ( );
+
+        this.position = new Point ( 0, 0 );
+        this.previousPosition = new Point ( 0, 0 );
+        if ( this.ribbons != null )
+            this.ribbons.updatePosition ( this.getVisibleMapRectangle ( ) );
+
+        if ( this.sprites != null ) {
+            this.sprites.setWorldArea ( this.worldArea );
+            this.sprites.setMetrics ( this.metrics );
+        }
+    }
+
+    /**
+     * Called when one game tick has passed
+     * Should return the new position of the map
+     *
+     * @return the new position of the map
+     */
+    public abstract Point tick ( );
+
+    /**
+     * Runs a single game tick, and updates the managers
+     * with the new position of the map
+     */
+    public void step ( ) {
+        GameEvents.TickEvent event = new GameEvents.TickEvent ( );
+        event.begin ( );
+
+        InputQueue input = this.input;
+        if ( input != null )
+            input.drain ( );
+
+        long start = System.nanoTime ( );
+        this.previousPosition.setLocation ( this.position );
+        for ( Viewport v : this.viewports )
+            v.rememberPosition ( );
+        Point position = this.tick ( );
+        start = this.metrics.recordSince ( Phase.TICK, start );
+
+        /**
+         * The returned point is clamped in place, as games that keep
+         * returning the same point rely on it staying within the world,
+         * but only ever copied, so that the game cannot change our
+         * position behind our back.
+         */
+        if ( this.worldArea != null ) {
+            position.x = Math.max ( this.worldArea.x, position.x );
+            position.y = Math.max ( this.worldArea.y, position.y );
+            position.x = Math.min ( position.x, this.worldArea.x + ( this.worldArea.width - this.viewportSize.width ) );
+            position.y = Math.min ( position.y, this.worldArea.y + ( this.worldArea.height - this.viewportSize.height ) );
+            for ( Viewport v : this.viewports )
+                v.clampTo ( this.worldArea );
+        }
+        this.position.setLocation ( position );
+
+        if ( this.ribbons != null )
+            this.ribbons.updatePosition ( this.getVisibleMapRectangle ( ) );
+        this.metrics.recordSince ( Phase.RIBBONS, start );
+
+        if ( this.sprites != null )
+            this.sprites.tick ( );
+
+        this.ticks++;
+
+        event.end ( );
+        if ( event.shouldCommit ( ) ) {
+            event.tick = this.ticks;
+            event.sprites = this.sprites == null ? 0 : this.sprites.size ( );
+            event.commit ( );
+        }
+    }
+
+    /**
+     * Runs the given number of ticks back-to-back, as fast as possible
+     *
+     * @param ticks Number of ticks to run
+     */
+    public void run ( long ticks ) {
+        for ( long i = 0; i < ticks; i++ )
+            this.step ( );
+    }
+
+    /**
+     * Saves the entire state of the game world, overwriting the given state.
+     * Should be called between ticks, on the thread running them.
+     *
+     * @param state The state to save to
+     */
+    public void saveState ( WorldState state ) {
+        while ( true ) {
+            ByteBuffer buffer = state.begin ( );
+            try {
+                this.save ( state, buffer );
+                return;
+            } catch ( BufferOverflowException e ) {
+                state.grow ( );
+            }
+        }
+    }
+
+    private void save ( WorldState state, ByteBuffer buffer ) {
+        buffer.putLong ( this.ticks );
+        buffer.putLong ( this.random.getState ( ) );
+        buffer.putInt ( this.position.x );
+        buffer.putInt ( this.position.y );
+        buffer.putInt ( this.previousPosition.x );
+        buffer.putInt ( this.previousPosition.y );
+
+        buffer.putInt ( this.viewports.size ( ) );
+        for ( Viewport v : this.viewports ) {
+            buffer.putInt ( v.getPosition ( ).x );
+            buffer.putInt ( v.getPosition ( ).y );
+            buffer.putInt ( v.getPreviousPosition ( ).x );
+            buffer.putInt ( v.getPreviousPosition ( ).y );
+        }
+
+        if ( this.sprites != null )
+            this.sprites.save ( state, buffer );
+        this.writeState ( buffer );
+    }
+
+    /**
+     * Puts the game world back in the given saved state.
+     * Should be called between ticks, on the thread running them.
+     *
+     * @param state A state previously saved from this simulation
+     */
+    public void restoreState ( WorldState state ) {
+        ByteBuffer buffer = state.read ( );
+        this.ticks = buffer.getLong ( );
+        this.random.setState ( buffer.getLong ( ) );
+        this.position.setLocation ( buffer.getInt ( ), buffer.getInt ( ) );
+        this.previousPosition.setLocation ( buffer.getInt ( ), buffer.getInt ( ) );
+
+        int viewports = buffer.getInt ( );
+        for ( int i = 0; i < viewports; i++ ) {
+            Point position = new Point ( buffer.getInt ( ), buffer.getInt ( ) );
+            int previousX = buffer.getInt ( );
+            int previousY = buffer.getInt ( );
+            if ( i < this.viewports.size ( ) ) {
+                Viewport v = this.viewports.get ( i );
+                v.setPosition ( position );
+                v.getPreviousPosition ( ).setLocation ( previousX, previousY );
+            }
+        }
+
+        if ( this.sprites != null )
+            this.sprites.restore ( state, buffer );
+        this.readState ( buffer );
+
+        if ( this.ribbons != null )
+            this.ribbons.updatePosition ( this.getVisibleMapRectangle ( ) );
+    }
+
+    /**
+     * Called when the world is saved, to write any state of the game
+     * that the Simulation does not know about, such as scores, to the
+     * given buffer.
+     * Default implementation is empty.
+     *
+     * @param buffer The buffer to write to
+     */
+    protected void writeState ( ByteBuffer buffer ) {
+    }
+
+    /**
+     * Called when the world is restored, to read back exactly
+     * what {@link #writeState(ByteBuffer)} wrote.
+     * Default implementation is empty.
+     *
+     * @param buffer The buffer to read from
+     */
+    protected void readState ( ByteBuffer buffer ) {
+    }
+
+    /**
+     * Returns the number of ticks run so far
+     *
+     * @return the number of ticks run so far
+     */
+    public long getTickCount ( ) {
+        return this.ticks;
+    }
+
+    /**
+     * Returns the timings of each phase of the game
+     *
+     * @return the timings of each phase of the game
+     */
+    public FrameMetrics getMetrics ( ) {
+        return this.metrics;
+    }
+
+    /**
+     * Returns the current position of the top-left corner of the visible part of the map.
+     * The position is a copy, and changing it has no effect on the game; return
+     * a new position from {@link #tick()} instead. Call this between ticks,
+     * or on the thread running them, as it may otherwise see half of a move.
+     *
+     * @return the current position of the map
+     */
+    public Point getPosition ( ) {
+        return new Point ( this.position );
+    }
+
+    /**
+     * Returns the position of the map before the last tick.
+     * Like {@link #getPosition()}, the position is a copy.
+     *
+     * @return the position of the map before the last tick
+     */
+    public Point getPreviousPosition ( ) {
+        return new Point ( this.previousPosition );
+    }
+
+    /**
+     * Returns the current position of the map itself, rather than a copy,
+     * for rendering without allocating. The point is changed in place by
+     * every tick, so it must only be read on the thread running ticks,
+     * and must not be changed or kept.
+     *
+     * @return the current position of the map
+     */
+    Point livePosition ( ) {
+        return this.position;
+    }
+
+    /**
+     * Returns the position of the map before the last tick itself, rather
+     * than a copy. The same rules as for {@link #livePosition()} apply.
+     *
+     * @return the position of the map before the last tick
+     */
+    Point livePreviousPosition ( ) {
+        return this.previousPosition;
+    }
+
+    /**
+     * Returns a rectangle representing the visible part of the current game world
+     *
+     * @return a rectangle representing the visible part of the current game world
+     */
+    public Rectangle getVisibleMapRectangle ( ) {
+        return new Rectangle ( this.position, this.viewportSize );
+    }
+
+    /**
+     * Returns the visible part of the game world as it should be rendered
+     * the given fraction of the way between the last tick and the next.
+     *
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @return The interpolated visible part of the game world
+     */
+    public Rectangle getInterpolatedMapRectangle ( double alpha ) {
+        if ( alpha >= 1.0 )
+            return this.getVisibleMapRectangle ( );
+
+        int x = this.previousPosition.x + (int) Math.round ( ( this.position.x - this.previousPosition.x ) * alpha );
+        int y = this.previousPosition.y + (int) Math.round ( ( this.position.y - this.previousPosition.y ) * alpha );
+        return new Rectangle ( x, y, this.viewportSize.width, this.viewportSize.height );
+    }
+
+    /**
+     * Returns the random number generator of the game.
+     * 
+     * Games that draw all their random numbers from this, and only during
+     * ticks, behave exactly the same every time they are given the same
+     * input, which is what makes recording and replaying games possible.
+     *
+     * @return the random number generator of the game
+     * @see InputRecorder
+     */
+    public GameRandom getRandom ( ) {
+        return this.random;
+    }
+
+    /**
+     * Makes the given queue be drained at the start of every tick,
+     * before the game and its sprites are ticked
+     *
+     * @param input The queue to drain, or null for none
+     */
+    public void setInput ( InputQueue input ) {
+        this.input = input;
+    }
+
+    /**
+     * Returns the queue drained at the start of every tick
+     *
+     * @return the queue drained at the start of every tick, or null if none
+     */
+    public InputQueue getInput ( ) {
+        return this.input;
+    }
+
+    /**
+     * Adds a camera looking at the game world.
+     * Its position is kept within the world area just
+     * like the position returned by {@link #tick()}.
+     *
+     * @param v The viewport to add
+     */
+    public void addViewport ( Viewport v ) {
+        this.viewports.add ( v );
+    }
+
+    /**
+     * Removes a camera previously added using {@link #addViewport(Viewport)}
+     *
+     * @param v The viewport to remove
+     */
+    public void removeViewport ( Viewport v ) {
+        this.viewports.remove ( v );
+    }
+
+    /**
+     * Returns the cameras added to this simulation, in the order they were added
+     *
+     * @return the viewports of this simulation, which may be empty
+     */
+    public List<Viewport> getViewports ( ) {
+        return this.viewports;
+    }
+
+    /**
+     * Returns the size of the visible part of the map
+     *
+     * @return the size of the visible part of the map
+     */
+    public Dimension getViewportSize ( ) {
+        return this.viewportSize;
+    }
+
+    /**
+     * Returns the rectangle representing the entire game world
+     *
+     * @return the rectangle representing the entire game world, or null if unlimited
+     */
+    public Rectangle getWorldArea ( ) {
+        return this.worldArea;
+    }
+
+    /**
+     * Returns the ribbon manager
+     *
+     * @return the ribbon manager, or null if there is none
+     */
+    public RibbonsManager getRibbons ( ) {
+        return this.ribbons;
+    }
+
+    /**
+     * Returns the sprite manager
+     *
+     * @return the sprite manager, or null if there is none
+     */
+    public SpriteManager getSprites ( ) {
+        return this.sprites;
+    }
+}
@@ -0,0 +1,274 @@
+package javax.game.sidescroller;
+
+import java.awt.Point;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Shows a game run by a {@link SnapshotServer}, by copying the state of
+ * the server's world into a local SpriteManager
+ *
+ * Snapshots are applied one per tick, from the game's own tick method,
+ * which should return the camera position {@link #tick()} returns. Rather
+ * than moving sprites directly, each sprite is given the speed that takes
+ * it to its new position, so that GamePanel interpolates it smoothly
+ * between ticks like any other sprite. Sprites created for the client
+ * should therefore move by their speed when ticked, as Sprite does, and
+ * do nothing else.
+ *
+ * A few snapshots are held back before they are applied, so that one
+ * arriving a little late does not make the world stop for a tick. Should
+ * the client fall far behind, it skips ahead.
+ *
+ * <pre>
+ * client = new SnapshotClient ( this.getSimulation ( ).getSprites ( ) ) {
+ *     protected Sprite createSprite ( int type, Point position ) {
+ *         return new Ship ( images[type], position, game );
+ *     }
+ * };
+ * client.connect ( address );
+ *
+ * public Point tick ( ) {
+ *     return client.tick ( );
+ * }
+ * </pre>
+ */
+public abstract class SnapshotClient implements Closeable {
+
+    /**
+     * Number of snapshots held back by default
+     */
+    public static final int DEFAULT_DELAY = 2;
+
+    private final SpriteManager sprites;
+    private SocketChannel channel;
+    private ByteBuffer in = ByteBuffer.allocate ( 65536 );
+    private boolean connected = false;
+
+    /**
+     * Snapshots received, but not yet applied
+     */
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer> ( );
+    private volatile int delay = DEFAULT_DELAY;
+
+    /**
+     * The world as of the last snapshot applied, by sprite id
+     */
+    private Sprite[] entities = new Sprite[16];
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private int cameraX, cameraY;
+    private int quantization = 0;
+    private volatile long tick = -1;
+
+    /**
+     * Creates a new client showing the server's world using the given sprites
+     *
+     * @param sprites The sprite manager to add the server's sprites to
+     */
+    public SnapshotClient ( SpriteManager sprites ) {
+        this.sprites = sprites;
+    }
+
+    /**
+     * Creates a local sprite for a sprite that appeared on the server
+     *
+     * @param type The type of sprite, as given by {@link SnapshotServer#getType(Sprite)}
+     * @param position Where the sprite is
+     * @return The new sprite
+     */
+    protected abstract Sprite createSprite ( int type, Point position );
+
+    /**
+     * Connects to the server at the given address
+     *
+     * @param address The address of the server
+     * @throws IOException if the server could not be reached
+     */
+    public void connect ( InetSocketAddress address ) throws IOException {
+        this.channel = SocketChannel.open ( address );
+        this.channel.configureBlocking ( false );
+        this.channel.socket ( ).setTcpNoDelay ( true );
+    }
+
+    /**
+     * Sets how many snapshots are held back before they are applied
+     *
+     * @param snapshots The number of snapshots to hold back
+     */
+    public void setDelay ( int snapshots ) {
+        this.delay = snapshots;
+    }
+
+    /**
+     * Applies the next snapshot from the server, if it is time to.
+     * Should be called from the game's tick method.
+     *
+     * @return The camera position sent by the server
+     */
+    public Point tick ( ) {
+        try {
+            this.receive ( );
+        } catch ( IOException e ) {
+            System.out.println ( "Lost connection to snapshot server: " + e );
+            this.close ( );
+        }
+
+        int delay = this.delay;
+        if ( this.pending.size ( ) > delay ) {
+            this.apply ( this.pending.poll ( ) );
+            while ( this.pending.size ( ) > 2 * delay + 1 )
+                this.apply ( this.pending.poll ( ) );
+        }
+
+        // Sprites move to where the server says they are during this tick
+        int q = this.quantization;
+        for ( int i = 0; i < this.entities.length; i++ ) {
+            Sprite s = this.entities[i];
+            if ( s != null ) {
+                Point p = s.getPosition ( );
+                s.setSpeed ( ( this.x[i] << q ) - p.x, ( this.y[i] << q ) - p.y );
+            }
+        }
+
+        return new Point ( this.cameraX << q, this.cameraY << q );
+    }
+
+    /**
+     * Reads every complete snapshot that has arrived
+     */
+    private void receive ( ) throws IOException {
+        if ( this.channel == null )
+            return;
+
+        while ( true ) {
+            int n = this.channel.read ( this.in );
+            if ( n < 0 )
+                throw new IOException ( "Connection closed by server" );
+
+            this.in.flip ( );
+            while ( this.in.remaining ( ) >= 4 && this.in.remaining ( ) - 4 >= this.in.getInt ( this.in.position ( ) ) ) {
+                int length = this.in.getInt ( );
+                ByteBuffer frame = ByteBuffer.allocate ( length );
+                this.in.get ( frame.array ( ) );
+                if ( this.connected )
+                    this.pending.add ( frame );
+                else
+                    this.handshake ( frame );
+            }
+
+            // Make room for a snapshot larger than the buffer
+            if ( this.in.remaining ( ) >= 4 && this.in.getInt ( this.in.position ( ) ) + 4 > this.in.capacity ( ) ) {
+                ByteBuffer larger = ByteBuffer.allocate ( this.in.getInt ( this.in.position ( ) ) + 4 );
+                larger.put ( this.in );
+                this.in = larger;
+            } else {
+                this.in.compact ( );
+            }
+
+            if ( n == 0 )
+                return;
+        }
+    }
+
+    private void handshake ( ByteBuffer frame ) throws IOException {
+        if ( frame.remaining ( ) < 9 || frame.getInt ( ) != SnapshotServer.MAGIC )
+            throw new IOException ( "Not a snapshot server" );
+        int version = frame.getInt ( );
+        if ( version != SnapshotServer.VERSION )
+            throw new IOException ( "Unsupported snapshot server version " + version );
+        this.quantization = frame.get ( );
+        this.connected = true;
+    }
+
+    /**
+     * Applies the changes in the given snapshot to the local world
+     */
+    private void apply ( ByteBuffer frame ) {
+        int q = this.quantization;
+        this.tick = SnapshotServer.getVarLong ( frame );
+        this.cameraX += SnapshotServer.getSignedVarInt ( frame );
+        this.cameraY += SnapshotServer.getSignedVarInt ( frame );
+
+        int key;
+        while ( ( key = SnapshotServer.getVarInt ( frame ) ) != 0 ) {
+            int i = ( key - 1 ) >>> 1;
+            if ( i >= this.entities.length ) {
+                int size = Math.max ( i + 1, this.entities.length * 2 );
+                this.entities = Arrays.copyOf ( this.entities, size );
+                this.x = Arrays.copyOf ( this.x, size );
+                this.y = Arrays.copyOf ( this.y, size );
+            }
+
+            if ( ( ( key - 1 ) & SnapshotServer.NEW ) != 0 ) {
+                int type = SnapshotServer.getVarInt ( frame );
+                this.x[i] = SnapshotServer.getSignedVarInt ( frame );
+                this.y[i] = SnapshotServer.getSignedVarInt ( frame );
+
+                if ( this.entities[i] != null )
+                    this.sprites.removeSprite ( this.entities[i] );
+                this.entities[i] = this.createSprite ( type, new Point ( this.x[i] << q, this.y[i] << q ) );
+                this.sprites.addSprite ( this.entities[i] );
+            } else {
+                this.x[i] += SnapshotServer.getSignedVarInt ( frame );
+                this.y[i] += SnapshotServer.getSignedVarInt ( frame );
+            }
+        }
+
+        while ( ( key = SnapshotServer.getVarInt ( frame ) ) != 0 ) {
+            int i = key - 1;
+            if ( i < this.entities.length && this.entities[i] != null ) {
+                this.sprites.removeSprite ( this.entities[i] );
+                this.entities[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the server tick of the last snapshot applied
+     *
+     * @return the server tick shown, or -1 if none yet
+     */
+    public long getTick ( ) {
+        return this.tick;
+    }
+
+    /**
+     * Returns the number of snapshots received but not yet applied
+     *
+     * @return the number of snapshots waiting
+     */
+    public int getPendingCount ( ) {
+        return this.pending.size ( );
+    }
+
+    /**
+     * Returns true if connected to a server
+     *
+     * @return true if connected to a server
+     */
+    public boolean isConnected ( ) {
+        return this.channel != null;
+    }
+
+    /**
+     * Disconnects from the server
+     */
+    @Override
+    public void close ( ) {
+        if ( this.channel == null )
+            return;
+
+        try {
+            this.channel.close ( );
+        } catch ( IOException e ) {
+            System.out.println ( "Could not close snapshot connection: " + e );
+        }
+        this.channel = null;
+    }
+}
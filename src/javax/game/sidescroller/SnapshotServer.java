@@ -0,0 +1,471 @@
+package javax.game.sidescroller;
+
+import java.awt.Point;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a game without a display, and streams the state of its world to
+ * any number of {@link SnapshotClient}s over TCP
+ *
+ * After every tick, each client is sent a snapshot of the camera position
+ * and the position of every sprite. Rather than the full world, the
+ * snapshot only holds what changed since the last snapshot that client
+ * was sent: sprites that appeared, with their type and position, sprites
+ * that moved, by how much, and sprites that were removed. Numbers are
+ * written as variable-length integers, so small moves take a byte or two,
+ * and positions may be quantized to multiples of a power of two to make
+ * them smaller still.
+ *
+ * The server never blocks. If a client has not yet received the last
+ * snapshot it was sent, it simply skips the next ones; since the following
+ * snapshot is relative to the last one it was actually sent, it still
+ * ends up with the right state.
+ *
+ * <pre>
+ * SnapshotServer server = new SnapshotServer ( simulation, new InetSocketAddress ( 4000 ) );
+ * while ( running ) {
+ *     server.step ( );
+ *     // wait for the next tick
+ * }
+ * </pre>
+ */
+public class SnapshotServer implements Closeable {
+
+    static final int MAGIC = 0x4A475331;
+    static final int VERSION = 1;
+
+    /**
+     * Marks a sprite in a snapshot as new, rather than moved
+     */
+    static final int NEW = 1;
+
+    /**
+     * What the server remembers about each connected client
+     */
+    private static class Connection {
+        SocketChannel channel;
+        ByteBuffer out;
+
+        /**
+         * The quantization the client was told about when it connected
+         */
+        int quantization;
+
+        /**
+         * The world as of the last snapshot sent to the client, quantized
+         */
+        boolean[] known = new boolean[0];
+        int[] generation = new int[0];
+        int[] x = new int[0];
+        int[] y = new int[0];
+        int cameraX, cameraY;
+    }
+
+    private final Simulation simulation;
+    private final ServerSocketChannel server;
+    private final List<Connection> clients = new ArrayList<Connection> ( );
+
+    /**
+     * Every sprite in the world is given a small id, which is reused after
+     * it is removed. The generation of an id changes every time it is reused.
+     */
+    private final Map<Sprite, Integer> ids = new IdentityHashMap<Sprite, Integer> ( );
+    private int[] free = new int[16];
+    private int freeCount = 0;
+    private int idCount = 0;
+
+    /**
+     * The current world, by sprite id, at full precision
+     */
+    private boolean[] alive = new boolean[16];
+    private int[] generation = new int[16];
+    private int[] type = new int[16];
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private long[] seen = new long[16];
+
+    private final List<Sprite> roster = new ArrayList<Sprite> ( );
+    private ByteBuffer frame = ByteBuffer.allocate ( 8192 );
+    private final ByteBuffer discard = ByteBuffer.allocate ( 512 );
+
+    private long published = 0;
+    private volatile int quantization = 0;
+    private volatile long bytesSent = 0;
+    private volatile long skipped = 0;
+
+    /**
+     * Creates a new server for the given game, listening on the given address
+     *
+     * @param simulation The game to run
+     * @param address The address to listen on, with port 0 to pick any free port
+     * @throws IOException if the address could not be listened on
+     */
+    public SnapshotServer ( Simulation simulation, InetSocketAddress address ) throws IOException {
+        this.simulation = simulation;
+        this.server = ServerSocketChannel.open ( );
+        this.server.bind ( address );
+        this.server.configureBlocking ( false );
+    }
+
+    /**
+     * Returns the address the server is listening on
+     *
+     * @return the address the server is listening on
+     * @throws IOException if the address could not be found
+     */
+    public InetSocketAddress getAddress ( ) throws IOException {
+        return (InetSocketAddress) this.server.getLocalAddress ( );
+    }
+
+    /**
+     * Makes positions be sent as multiples of 2 to the given power.
+     * Only affects clients that connect after this is called.
+     *
+     * @param bits The number of low bits of every position to drop
+     */
+    public void setQuantization ( int bits ) {
+        this.quantization = bits;
+    }
+
+    /**
+     * Returns what kind of sprite the given sprite is, so clients can
+     * create a matching sprite. Default implementation returns 0.
+     *
+     * @param s The sprite
+     * @return the type of sprite, 0 or more
+     */
+    protected int getType ( Sprite s ) {
+        return 0;
+    }
+
+    /**
+     * Runs a game tick and sends the resulting world to every client
+     */
+    public void step ( ) {
+        this.simulation.step ( );
+        this.publish ( );
+    }
+
+    /**
+     * Sends the current world to every client, accepting new clients first.
+     * Only needed instead of {@link #step()} if the game's ticks are run elsewhere.
+     */
+    public void publish ( ) {
+        this.accept ( );
+        this.update ( );
+
+        Point camera = this.simulation.getPosition ( );
+        long tick = this.simulation.getTickCount ( );
+
+        for ( Iterator<Connection> it = this.clients.iterator ( ); it.hasNext ( ); ) {
+            Connection c = it.next ( );
+            try {
+                this.discard ( c );
+
+                // Still sending the last snapshot, so skip this one
+                if ( c.out.hasRemaining ( ) && this.flush ( c ) ) {
+                    this.skipped++;
+                    continue;
+                }
+
+                this.encode ( c, tick, camera.x, camera.y );
+                if ( c.out.capacity ( ) < this.frame.remaining ( ) )
+                    c.out = ByteBuffer.allocate ( this.frame.capacity ( ) );
+                c.out.clear ( );
+                c.out.put ( this.frame );
+                c.out.flip ( );
+                this.flush ( c );
+            } catch ( IOException e ) {
+                System.out.println ( "Dropping snapshot client: " + e );
+                this.disconnect ( c );
+                it.remove ( );
+            }
+        }
+    }
+
+    private void accept ( ) {
+        try {
+            SocketChannel channel;
+            while ( ( channel = this.server.accept ( ) ) != null ) {
+                channel.configureBlocking ( false );
+                channel.socket ( ).setTcpNoDelay ( true );
+
+                Connection c = new Connection ( );
+                c.channel = channel;
+                c.quantization = this.quantization;
+                c.out = ByteBuffer.allocate ( this.frame.capacity ( ) );
+                c.out.putInt ( 9 );
+                c.out.putInt ( MAGIC );
+                c.out.putInt ( VERSION );
+                c.out.put ( (byte) c.quantization );
+                c.out.flip ( );
+                this.clients.add ( c );
+            }
+        } catch ( IOException e ) {
+            System.out.println ( "Could not accept snapshot client: " + e );
+        }
+    }
+
+    /**
+     * Brings the table of sprites up to date with the world
+     */
+    private void update ( ) {
+        long stamp = ++this.published;
+
+        SpriteManager sprites = this.simulation.getSprites ( );
+        if ( sprites != null )
+            sprites.collect ( this.roster );
+
+        for ( Sprite s : this.roster ) {
+            Integer id = this.ids.get ( s );
+            int i;
+            if ( id == null ) {
+                i = this.allocate ( );
+                this.ids.put ( s, i );
+                this.alive[i] = true;
+                this.generation[i]++;
+                this.type[i] = this.getType ( s );
+            } else {
+                i = id;
+            }
+
+            Point p = s.getPosition ( );
+            this.x[i] = p.x;
+            this.y[i] = p.y;
+            this.seen[i] = stamp;
+        }
+        this.roster.clear ( );
+
+        for ( Iterator<Integer> it = this.ids.values ( ).iterator ( ); it.hasNext ( ); ) {
+            int i = it.next ( );
+            if ( this.seen[i] != stamp ) {
+                it.remove ( );
+                this.alive[i] = false;
+                if ( this.freeCount == this.free.length )
+                    this.free = Arrays.copyOf ( this.free, this.freeCount * 2 );
+                this.free[this.freeCount++] = i;
+            }
+        }
+    }
+
+    private int allocate ( ) {
+        if ( this.freeCount > 0 )
+            return this.free[--this.freeCount];
+
+        if ( this.idCount == this.alive.length ) {
+            int size = this.idCount * 2;
+            this.alive = Arrays.copyOf ( this.alive, size );
+            this.generation = Arrays.copyOf ( this.generation, size );
+            this.type = Arrays.copyOf ( this.type, size );
+            this.x = Arrays.copyOf ( this.x, size );
+            this.y = Arrays.copyOf ( this.y, size );
+            this.seen = Arrays.copyOf ( this.seen, size );
+        }
+        return this.idCount++;
+    }
+
+    /**
+     * Writes what changed since the last snapshot sent to the given client
+     * to the frame buffer, quantized for that client, and remembers it as sent
+     */
+    private void encode ( Connection c, long tick, int cameraX, int cameraY ) {
+        int q = c.quantization;
+        cameraX >>= q;
+        cameraY >>= q;
+
+        if ( c.known.length < this.idCount ) {
+            int size = this.alive.length;
+            c.known = Arrays.copyOf ( c.known, size );
+            c.generation = Arrays.copyOf ( c.generation, size );
+            c.x = Arrays.copyOf ( c.x, size );
+            c.y = Arrays.copyOf ( c.y, size );
+        }
+
+        while ( true ) {
+            try {
+                this.frame.clear ( );
+                this.frame.putInt ( 0 );
+                putVarLong ( this.frame, tick );
+                putSignedVarInt ( this.frame, cameraX - c.cameraX );
+                putSignedVarInt ( this.frame, cameraY - c.cameraY );
+
+                // Sprites that appeared or moved, ended by 0
+                for ( int i = 0; i < this.idCount; i++ ) {
+                    if ( !this.alive[i] )
+                        continue;
+
+                    int x = this.x[i] >> q;
+                    int y = this.y[i] >> q;
+                    if ( !c.known[i] || c.generation[i] != this.generation[i] ) {
+                        putVarInt ( this.frame, ( ( i << 1 ) | NEW ) + 1 );
+                        putVarInt ( this.frame, this.type[i] );
+                        putSignedVarInt ( this.frame, x );
+                        putSignedVarInt ( this.frame, y );
+                    } else if ( c.x[i] != x || c.y[i] != y ) {
+                        putVarInt ( this.frame, ( i << 1 ) + 1 );
+                        putSignedVarInt ( this.frame, x - c.x[i] );
+                        putSignedVarInt ( this.frame, y - c.y[i] );
+                    }
+                }
+                putVarInt ( this.frame, 0 );
+
+                // Sprites that were removed, ended by 0
+                for ( int i = 0; i < this.idCount; i++ )
+                    if ( c.known[i] && !this.alive[i] )
+                        putVarInt ( this.frame, i + 1 );
+                putVarInt ( this.frame, 0 );
+                break;
+            } catch ( BufferOverflowException e ) {
+                this.frame = ByteBuffer.allocate ( this.frame.capacity ( ) * 2 );
+            }
+        }
+
+        this.frame.putInt ( 0, this.frame.position ( ) - 4 );
+        this.frame.flip ( );
+
+        for ( int i = 0; i < this.idCount; i++ ) {
+            c.known[i] = this.alive[i];
+            c.generation[i] = this.generation[i];
+            c.x[i] = this.x[i] >> q;
+            c.y[i] = this.y[i] >> q;
+        }
+        c.cameraX = cameraX;
+        c.cameraY = cameraY;
+    }
+
+    /**
+     * Sends as much of the client's pending data as it will take
+     *
+     * @return true if some of it is still pending
+     */
+    private boolean flush ( Connection c ) throws IOException {
+        this.bytesSent += c.channel.write ( c.out );
+        return c.out.hasRemaining ( );
+    }
+
+    /**
+     * Clients have nothing to say, but reading tells us when they leave
+     */
+    private void discard ( Connection c ) throws IOException {
+        int n;
+        do {
+            this.discard.clear ( );
+            n = c.channel.read ( this.discard );
+            if ( n < 0 )
+                throw new IOException ( "Connection closed by client" );
+        } while ( n > 0 );
+    }
+
+    private void disconnect ( Connection c ) {
+        try {
+            c.channel.close ( );
+        } catch ( IOException e ) {
+            System.out.println ( "Could not close snapshot client: " + e );
+        }
+    }
+
+    /**
+     * Returns the number of connected clients
+     *
+     * @return the number of connected clients
+     */
+    public int getClientCount ( ) {
+        return this.clients.size ( );
+    }
+
+    /**
+     * Returns the number of bytes sent to clients so far
+     *
+     * @return the number of bytes sent
+     */
+    public long getBytesSent ( ) {
+        return this.bytesSent;
+    }
+
+    /**
+     * Returns the number of times a client was skipped because
+     * it had not yet received the last snapshot
+     *
+     * @return the number of skipped snapshots
+     */
+    public long getSkippedCount ( ) {
+        return this.skipped;
+    }
+
+    /**
+     * Returns the game being run
+     *
+     * @return the game being run
+     */
+    public Simulation getSimulation ( ) {
+        return this.simulation;
+    }
+
+    /**
+     * Disconnects all clients and stops listening
+     */
+    @Override
+    public void close ( ) throws IOException {
+        for ( Connection c : this.clients )
+            this.disconnect ( c );
+        this.clients.clear ( );
+        this.server.close ( );
+    }
+
+    static void putVarInt ( ByteBuffer b, int v ) {
+        while ( ( v & ~0x7f ) != 0 ) {
+            b.put ( (byte) ( ( v & 0x7f ) | 0x80 ) );
+            v >>>= 7;
+        }
+        b.put ( (byte) v );
+    }
+
+    static void putSignedVarInt ( ByteBuffer b, int v ) {
+        putVarInt ( b, ( v << 1 ) ^ ( v >> 31 ) );
+    }
+
+    static void putVarLong ( ByteBuffer b, long v ) {
+        while ( ( v & ~0x7fL ) != 0 ) {
+            b.put ( (byte) ( ( v & 0x7f ) | 0x80 ) );
+            v >>>= 7;
+        }
+        b.put ( (byte) v );
+    }
+
+    static int getVarInt ( ByteBuffer b ) {
+        int v = 0;
+        for ( int shift = 0;; shift += 7 ) {
+            byte n = b.get ( );
+            v |= ( n & 0x7f ) << shift;
+            if ( n >= 0 )
+                return v;
+        }
+    }
+
+    static int getSignedVarInt ( ByteBuffer b ) {
+        int v = getVarInt ( b );
+        return ( v >>> 1 ) ^ -( v & 1 );
+    }
+
+    static long getVarLong ( ByteBuffer b ) {
+        long v = 0;
+        for ( int shift = 0;; shift += 7 ) {
+            byte n = b.get ( );
+            v |= (long) ( n & 0x7f ) << shift;
+            if ( n >= 0 )
+                return v;
+        }
+    }
+}
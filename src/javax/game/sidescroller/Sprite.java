@@ -7,8 +7,11 @@ import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.media.utils.loaders.images.ImageAnimator;
 
@@ -21,6 +24,47 @@ import javax.media.utils.loaders.images.ImageAnimator;
 public abstract class Sprite implements KeyListener {
 
     protected Point position;
+
+    /**
+     * The position of this sprite before the last tick.
+     * Used to draw the sprite between ticks.
+     */
+    private Point previousPosition;
+
+    /**
+     * Where, and with which image, this sprite was last drawn.
+     * Used to find the parts of the screen that need repainting.
+     */
+    private BufferedImage drawnImage;
+    private int drawnX, drawnY;
+
+    /**
+     * Which sprite classes override {@link #draw(Graphics)}, as
+     * sprites written before interpolated drawing may
+     */
+    private static final Map<Class<?>, Boolean> overridesDraw = new ConcurrentHashMap<Class<?>, Boolean> ( );
+
+    /**
+     * Which sprite classes have been captured in a snapshot, and
+     * so been checked for drawing that snapshots cannot reproduce
+     */
+    private static final Map<Class<?>, Boolean> checkedSnapshot = new ConcurrentHashMap<Class<?>, Boolean> ( );
+
+    /**
+     * The frame being rendered on each thread, so that {@link #draw(Graphics)}
+     * draws where {@link #draw(Graphics, Rectangle, double)} would
+     */
+    private static final class Drawing {
+        Rectangle frame;
+        double alpha;
+    }
+
+    private static final ThreadLocal<Drawing> drawing = new ThreadLocal<Drawing> ( ) {
+        @Override
+        protected Drawing initialValue ( ) {
+            return new Drawing ( );
+        }
+    };
     protected ImageAnimator image;
     protected Set<Rectangle> hitboxes;
     
@@ -41,10 +85,16 @@ public abstract class Sprite implements KeyListener {
     protected Point speed;
 
     /**
-     * Panel this sprite belongs to
+     * Panel this sprite belongs to.
+     * Null if the sprite belongs to a Simulation without a panel.
      */
     protected GamePanel game;
 
+    /**
+     * Game state this sprite belongs to
+     */
+    protected Simulation world;
+
     /**
      * Creates a new sprite
      * 
@@ -52,12 +102,28 @@ public abstract class Sprite implements KeyListener {
      * 
      * @param spriteImage The base image for this sprite
      * @param initialPosition The initial coordinates for the sprite
+     * @param game The game this sprite is shown in, may be null
      */
     public Sprite ( ImageAnimator spriteImage, Point initialPosition, GamePanel game ) {
+        this ( spriteImage, initialPosition, game == null ? null : game.getSimulation ( ) );
+        this.game = game;
+    }
+
+    /**
+     * Creates a new sprite that is not shown in any GamePanel,
+     * such as when running a Simulation without a display
+     * 
+     * Note that initialPoint should not be null!
+     * 
+     * @param spriteImage The base image for this sprite
+     * @param initialPosition The initial coordinates for the sprite
+     * @param world The game state this sprite belongs to
+     */
+    public Sprite ( ImageAnimator spriteImage, Point initialPosition, Simulation world ) {
         this.image = spriteImage;
         this.speed = new Point ( 0, 0 );
         this.position = initialPosition;
-        this.game = game;
+        this.world = world;
         this.hitboxes = new HashSet<Rectangle> ( );
     }
 
@@ -240,22 +306,158 @@ public abstract class Sprite implements KeyListener {
         this.positionUpdated ( );
     }
 
+    /**
+     * Remembers the current position as the position before the next tick.
+     * Called by the SpriteManager before each tick.
+     */
+    void rememberPosition ( ) {
+        if ( this.previousPosition == null )
+            this.previousPosition = new Point ( this.position );
+        else
+            this.previousPosition.setLocation ( this.position );
+    }
+
+    /**
+     * Returns the position of this sprite before the last tick,
+     * or null if it has not been ticked yet
+     * 
+     * @return the position of this sprite before the last tick
+     */
+    Point getPreviousPosition ( ) {
+        return this.previousPosition;
+    }
+
+    /**
+     * Writes the state of this sprite to the given buffer
+     * 
+     * @param buffer The buffer to write to
+     */
+    void save ( ByteBuffer buffer ) {
+        buffer.putInt ( this.position.x );
+        buffer.putInt ( this.position.y );
+        if ( this.previousPosition == null ) {
+            buffer.put ( (byte) 0 );
+        } else {
+            buffer.put ( (byte) 1 );
+            buffer.putInt ( this.previousPosition.x );
+            buffer.putInt ( this.previousPosition.y );
+        }
+        buffer.putInt ( this.speed.x );
+        buffer.putInt ( this.speed.y );
+
+        buffer.putInt ( this.hitboxes.size ( ) );
+        for ( Rectangle r : this.hitboxes ) {
+            buffer.putInt ( r.x );
+            buffer.putInt ( r.y );
+            buffer.putInt ( r.width );
+            buffer.putInt ( r.height );
+        }
+
+        this.writeState ( buffer );
+    }
+
+    /**
+     * Restores the state of this sprite from the given buffer
+     * 
+     * @param buffer The buffer to read from
+     * @param image The image animator the sprite had when it was saved
+     */
+    void restore ( ByteBuffer buffer, ImageAnimator image ) {
+        this.image = image;
+        this.position.setLocation ( buffer.getInt ( ), buffer.getInt ( ) );
+        if ( buffer.get ( ) == 0 )
+            this.previousPosition = null;
+        else if ( this.previousPosition == null )
+            this.previousPosition = new Point ( buffer.getInt ( ), buffer.getInt ( ) );
+        else
+            this.previousPosition.setLocation ( buffer.getInt ( ), buffer.getInt ( ) );
+        this.speed.setLocation ( buffer.getInt ( ), buffer.getInt ( ) );
+
+        // Hitboxes rarely change, so only rebuild them if they have
+        int count = buffer.getInt ( );
+        int start = buffer.position ( );
+        boolean same = count == this.hitboxes.size ( );
+        Rectangle r = new Rectangle ( );
+        for ( int i = 0; i < count && same; i++ ) {
+            r.setBounds ( buffer.getInt ( ), buffer.getInt ( ), buffer.getInt ( ), buffer.getInt ( ) );
+            same = this.hitboxes.contains ( r );
+        }
+        buffer.position ( start );
+        if ( same ) {
+            buffer.position ( start + count * 16 );
+        } else {
+            this.hitboxes.clear ( );
+            for ( int i = 0; i < count; i++ )
+                this.hitboxes.add ( new Rectangle ( buffer.getInt ( ), buffer.getInt ( ), buffer.getInt ( ), buffer.getInt ( ) ) );
+        }
+
+        this.positionUpdated ( );
+        this.readState ( buffer );
+    }
+
+    /**
+     * Called when the world is saved, to write any state of this sprite
+     * that the Sprite class does not know about, such as which frame its
+     * animation is at, to the given buffer.
+     * Position, speed and hitboxes are saved already.
+     * Default implementation is empty.
+     * 
+     * @param buffer The buffer to write to
+     * @see WorldState
+     */
+    protected void writeState ( ByteBuffer buffer ) {
+    }
+
+    /**
+     * Called when the world is restored, to read back exactly
+     * what {@link #writeState(ByteBuffer)} wrote.
+     * Default implementation is empty.
+     * 
+     * @param buffer The buffer to read from
+     */
+    protected void readState ( ByteBuffer buffer ) {
+    }
+
+    /**
+     * Draws the visible part of this sprite using the given Graphics context
+     * 
+     * The sprite's relative position is determined from its absolute
+     * coordinates and the frame being rendered, or
+     * Simulation.getVisibleMapRectangle() outside of rendering a frame.
+     * 
+     * @param g Graphics context
+     */
+    public void draw ( Graphics g ) {
+        Drawing d = drawing.get ( );
+        if ( d.frame != null )
+            this.draw ( g, d.frame, d.alpha );
+        else
+            this.draw ( g, this.world.getVisibleMapRectangle ( ), 1.0 );
+    }
+
     /**
      * Draws the visible part of this sprite using the given Graphics context
      * 
      * The currentGameFrame is used to determine the sprite's relative position
      * from its absolute coordinates.
+     * The sprite is drawn alpha of the way from where it was before the
+     * last tick to where it is now.
+     * 
+     * The SpriteManager calls this method, unless the sprite overrides
+     * {@link #draw(Graphics)}, in which case that is called instead,
+     * and draws into the same frame when the override calls super.draw.
+     * Neither is called with {@link LoopMode#PIPELINED}, which draws
+     * {@link #getSnapshotImage()} instead.
      * 
      * @param g Graphics context
-     * @param currentGameFrame as returned by GamePanel.getVisibleMapRectangle()
+     * @param currentGameFrame the visible part of the game world
+     * @param alpha How far we are between the last tick (0) and the next (1)
      */
-    public void draw ( Graphics g ) {
+    public void draw ( Graphics g, Rectangle currentGameFrame, double alpha ) {
 
         if ( this.image == null )
             return;
 
-        Rectangle currentGameFrame = this.game.getVisibleMapRectangle ( );
-
         /**
          * Yes, this replicates the code of getRectangle,
          * but we want to do use currentSprite later on,
@@ -265,41 +467,206 @@ public abstract class Sprite implements KeyListener {
          * and in getRectangle, causing the Rectangle not
          * to accurately represent the image.
          */
-        BufferedImage currentSprite = this.image.getCurrentImage ( );
-        Rectangle sprite = new Rectangle ( this.position, new Dimension ( currentSprite.getWidth ( ), currentSprite.getHeight ( ) ) );
+        this.draw ( g, this.image.getCurrentImage ( ), currentGameFrame, alpha );
 
-        Rectangle visible = sprite.intersection ( currentGameFrame );
+    }
 
-        // First, only draw if the intersection is visible
-        if ( visible.isEmpty ( ) )
-            return;
+    /**
+     * Draws the visible part of the given image where this sprite is,
+     * alpha of the way between its positions before and after the last tick
+     * 
+     * @param g Graphics context
+     * @param currentSprite The image to draw
+     * @param currentGameFrame the visible part of the game world
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    void draw ( Graphics g, BufferedImage currentSprite, Rectangle currentGameFrame, double alpha ) {
+
+        int x = this.getDrawX ( alpha );
+        int y = this.getDrawY ( alpha );
 
         /**
-         * destination = this.position - game.position
+         * The visible part of the sprite, in world coordinates.
+         * This is drawn every frame, so plain ints are used
+         * rather than allocating Rectangles and Points.
          */
-        Point destination = new Point ( visible.x - currentGameFrame.x, visible.y - currentGameFrame.y );
+        int left = Math.max ( x, currentGameFrame.x );
+        int top = Math.max ( y, currentGameFrame.y );
+        int right = Math.min ( x + currentSprite.getWidth ( ), currentGameFrame.x + currentGameFrame.width );
+        int bottom = Math.min ( y + currentSprite.getHeight ( ), currentGameFrame.y + currentGameFrame.height );
 
-        Point source = new Point ( 0, 0 );
+        // First, only draw if the intersection is visible
+        if ( right <= left || bottom <= top )
+            return;
 
         /**
-         * If we are clipped in the top or left, the source point
-         * has to be adjusted by how much we should clip in each
-         * direction
+         * destination = this.position - game.position
+         * If we are clipped in the top or left, the source
+         * is offset by how much we are clipped
          */
-        if ( visible.x == currentGameFrame.x )
-            source.translate ( currentSprite.getWidth ( ) - visible.width, 0 );
-        if ( visible.y == currentGameFrame.y )
-            source.translate ( 0, currentSprite.getHeight ( ) - visible.height );
-
         g.drawImage ( currentSprite,
-                destination.x, destination.y,
-                destination.x + visible.width, destination.y + visible.height,
-                source.x, source.y,
-                source.x + visible.width, source.y + visible.height,
+                left - currentGameFrame.x, top - currentGameFrame.y,
+                right - currentGameFrame.x, bottom - currentGameFrame.y,
+                left - x, top - y,
+                right - x, bottom - y,
                 null );
 
     }
 
+    /**
+     * Draws this sprite as part of a frame, through {@link #draw(Graphics)}
+     * if it is overridden, and {@link #draw(Graphics, Rectangle, double)} otherwise
+     * 
+     * @param g Graphics context
+     * @param currentGameFrame the visible part of the game world
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    void render ( Graphics g, Rectangle currentGameFrame, double alpha ) {
+        if ( !this.overridesDraw ( ) ) {
+            this.draw ( g, currentGameFrame, alpha );
+            return;
+        }
+
+        Drawing d = drawing.get ( );
+        d.frame = currentGameFrame;
+        d.alpha = alpha;
+        try {
+            this.draw ( g );
+        } finally {
+            d.frame = null;
+        }
+    }
+
+    /**
+     * Remembers where this sprite was drawn in the main view, and with which
+     * image, so that the parts of the screen it changes can be found.
+     * Only called for frames drawn by a single thread.
+     * 
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    void drawn ( double alpha ) {
+        this.drawnImage = this.image == null ? null : this.image.getCurrentImage ( );
+        this.drawnX = this.getDrawX ( alpha );
+        this.drawnY = this.getDrawY ( alpha );
+    }
+
+    /**
+     * Returns true if this sprite's class overrides {@link #draw(Graphics)}
+     */
+    boolean overridesDraw ( ) {
+        Class<?> type = this.getClass ( );
+        Boolean overrides = overridesDraw.get ( type );
+        if ( overrides == null ) {
+            overrides = overrides ( type, "draw", Graphics.class );
+            overridesDraw.put ( type, overrides );
+        }
+        return overrides;
+    }
+
+    /**
+     * Returns true if the given sprite class, or one of its superclasses
+     * other than Sprite, declares the given method
+     */
+    private static boolean overrides ( Class<?> type, String name, Class<?>... parameters ) {
+        for ( Class<?> c = type; c != Sprite.class; c = c.getSuperclass ( ) ) {
+            try {
+                c.getDeclaredMethod ( name, parameters );
+                return true;
+            } catch ( NoSuchMethodException e ) {
+                // Look further up
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the image to show for this sprite in a snapshot of the game.
+     * 
+     * With {@link LoopMode#PIPELINED}, frames are not drawn by calling
+     * draw on the sprites, as the simulation thread may be changing them
+     * at the same time. Instead, this image is captured after every tick,
+     * and drawn at the sprite's interpolated position. Sprites that override
+     * draw to look like something other than their current image should
+     * override this method as well, and return an image of what they look like.
+     * The image is drawn after this method returns, so it must not be changed
+     * afterwards.
+     * 
+     * Default implementation returns the current image of the sprite's animator.
+     * 
+     * @return the image to draw, or null to draw nothing
+     */
+    protected BufferedImage getSnapshotImage ( ) {
+        return this.image == null ? null : this.image.getCurrentImage ( );
+    }
+
+    /**
+     * Returns {@link #getSnapshotImage()}, warning once per class about
+     * sprites that override draw but not getSnapshotImage, as snapshots
+     * would then silently look different from the sprite's own drawing
+     */
+    BufferedImage snapshotImage ( ) {
+        Class<?> type = this.getClass ( );
+        if ( checkedSnapshot.put ( type, Boolean.TRUE ) == null ) {
+            boolean draws = overrides ( type, "draw", Graphics.class ) || overrides ( type, "draw", Graphics.class, Rectangle.class, double.class );
+            if ( draws && !overrides ( type, "getSnapshotImage" ) )
+                System.out.println ( type.getName ( ) + " overrides draw, which is not called when rendering snapshots; override getSnapshotImage to match" );
+        }
+        return this.getSnapshotImage ( );
+    }
+
+    /**
+     * Returns the x coordinate this sprite is drawn at alpha of the way
+     * between its positions before and after the last tick
+     */
+    private int getDrawX ( double alpha ) {
+        if ( alpha >= 1.0 || this.previousPosition == null )
+            return this.position.x;
+        return this.previousPosition.x + (int) Math.round ( ( this.position.x - this.previousPosition.x ) * alpha );
+    }
+
+    /**
+     * Returns the y coordinate this sprite is drawn at alpha of the way
+     * between its positions before and after the last tick
+     */
+    private int getDrawY ( double alpha ) {
+        if ( alpha >= 1.0 || this.previousPosition == null )
+            return this.position.y;
+        return this.previousPosition.y + (int) Math.round ( ( this.position.y - this.previousPosition.y ) * alpha );
+    }
+
+    /**
+     * Marks the parts of the screen this sprite would change if drawn now:
+     * where it was last drawn, and where it would be drawn now, if it has
+     * moved or its image has changed since then.
+     * 
+     * @param dirty The regions to add to
+     * @param currentGameFrame the visible part of the game world
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    void addDirtyRegions ( DirtyRegions dirty, Rectangle currentGameFrame, double alpha ) {
+        BufferedImage current = this.image == null ? null : this.image.getCurrentImage ( );
+        int x = this.getDrawX ( alpha );
+        int y = this.getDrawY ( alpha );
+
+        if ( current == this.drawnImage && ( current == null || ( x == this.drawnX && y == this.drawnY ) ) )
+            return;
+
+        this.addDrawnRegion ( dirty, currentGameFrame );
+        if ( current != null )
+            dirty.add ( x - currentGameFrame.x, y - currentGameFrame.y, current.getWidth ( ), current.getHeight ( ) );
+    }
+
+    /**
+     * Marks the part of the screen this sprite was last drawn to as dirty
+     * 
+     * @param dirty The regions to add to
+     * @param currentGameFrame the visible part of the game world
+     */
+    void addDrawnRegion ( DirtyRegions dirty, Rectangle currentGameFrame ) {
+        if ( this.drawnImage != null )
+            dirty.add ( this.drawnX - currentGameFrame.x, this.drawnY - currentGameFrame.y, this.drawnImage.getWidth ( ), this.drawnImage.getHeight ( ) );
+    }
+
     /**
      * Returns the current sprite's hitboxes.
      * 
@@ -362,6 +729,19 @@ public abstract class Sprite implements KeyListener {
         return sprite.intersects ( currentGameFrame );
     }
 
+    /**
+     * Returns true if the given key is currently held down.
+     * Meant to be used from {@link #tick()} instead of keeping
+     * track of key presses and releases.
+     * 
+     * @param code The key code, such as KeyEvent.VK_LEFT
+     * @return true if the given key is held down
+     */
+    public boolean isKeyDown ( int code ) {
+        SpriteManager sprites = this.world == null ? null : this.world.getSprites ( );
+        return sprites != null && sprites.getKeyboard ( ).isDown ( code );
+    }
+
     /**
      * Default implementation is empty
      */
@@ -391,7 +771,7 @@ public abstract class Sprite implements KeyListener {
      * @return The set of sprites that should be removed as a result of this operation
      */
     public Set<Sprite> leavingGameArea ( ) {
-        Rectangle frame = this.game.getVisibleMapRectangle ( );
+        Rectangle frame = this.world.getVisibleMapRectangle ( );
         Rectangle sprite = this.getRectangle ( );
         
         if ( this.position.x <= frame.x ) {
@@ -4,10 +4,15 @@ import java.awt.Graphics;
 import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.game.SpriteListener;
@@ -21,7 +26,11 @@ import javax.game.SpriteListener;
  * CollisionWatcher objects are notified.
  * 
  * Also, all key events the sprite manager receives are
- * forwarded to all sprites.
+ * forwarded to all sprites, unless broadcasting is turned
+ * off using {@link #setKeyBroadcast(boolean)}, in which case
+ * they are only forwarded to sprites that subscribed to them.
+ * Either way, the sprite manager keeps track of which keys
+ * are held down, see {@link #getKeyboard()}.
  */
 public class SpriteManager implements KeyListener {
 
@@ -29,12 +38,41 @@ public class SpriteManager implements KeyListener {
     private List<Sprite> sprites;
     private Rectangle worldArea;
 
+    /**
+     * Where to record how long each part of a tick takes, if anywhere
+     */
+    private FrameMetrics metrics;
+
+    /**
+     * Sprites removed since the dirty regions were last collected.
+     * Null unless dirty tracking is enabled.
+     */
+    private List<Sprite> removed;
+
+    /**
+     * Which keys are currently held down
+     */
+    private KeyboardState keyboard = new KeyboardState ( );
+
+    /**
+     * Whether every key event is forwarded to every sprite
+     */
+    private volatile boolean keyBroadcast = true;
+
+    /**
+     * Sprites subscribed to each key code.
+     * Never changed once set, but replaced by a changed copy, so that it
+     * can be read without locking, and saved along with the world as is.
+     */
+    private volatile Map<Integer, Sprite[]> subscriptions = Collections.emptyMap ( );
+    private final Object subscriptionsLock = new Object ( );
+
     /**
      * Create a new Sprite manager
      */
     public SpriteManager ( ) {
         this.spriteWatchers = new HashSet<SpriteListener> ( );
-        this.sprites = Collections.synchronizedList ( new LinkedList<Sprite> ( ) );
+        this.sprites = Collections.synchronizedList ( new ArrayList<Sprite> ( ) );
     }
 
     /**
@@ -57,10 +95,27 @@ public class SpriteManager implements KeyListener {
      */
     public void removeSprite ( Sprite s ) {
         synchronized ( this.sprites ) {
-            this.sprites.remove ( s );
+            if ( this.sprites.remove ( s ) )
+                this.spriteRemoved ( s );
         }
     }
 
+    /**
+     * Forgets the key subscriptions of the given sprite, and remembers that
+     * it was removed, so that the part of the screen it covered can be repainted
+     * 
+     * @param s The removed sprite
+     */
+    private void spriteRemoved ( Sprite s ) {
+        this.unsubscribe ( s );
+
+        List<Sprite> removed = this.removed;
+        if ( removed != null )
+            synchronized ( removed ) {
+                removed.add ( s );
+            }
+    }
+
     /**
      * Adds a Sprite at the given index.
      * This Sprite will be drawn after all Sprites
@@ -80,11 +135,23 @@ public class SpriteManager implements KeyListener {
      * the position of sprites
      */
     public void tick ( ) {
-        for ( Sprite s : this.sprites )
+        long start = System.nanoTime ( );
+
+        for ( Sprite s : this.sprites ) {
+            s.rememberPosition ( );
             s.tick ( );
+        }
+
+        if ( this.metrics != null )
+            start = this.metrics.recordSince ( Phase.SPRITE_TICK, start );
 
         Set<Sprite> toRemove = new HashSet<Sprite> ( );
 
+        GameEvents.CollisionEvent event = new GameEvents.CollisionEvent ( );
+        event.begin ( );
+        long pairs = 0;
+        int collisions = 0;
+
         /**
          * Sprite event detection
          */
@@ -99,17 +166,39 @@ public class SpriteManager implements KeyListener {
 
                 for ( int j = sprite++; j < this.sprites.size ( ); j++ ) {
                     Sprite s2 = this.sprites.get ( j );
-                    if ( s.collides ( s2 ) )
+                    pairs++;
+                    if ( s.collides ( s2 ) ) {
+                        collisions++;
                         for ( SpriteListener c : this.spriteWatchers ) {
                             Set<Sprite> r = c.handleCollision ( s, s2 );
                             if ( r != null )
                                 toRemove.addAll ( r );
                         }
+                    }
                 }
             }
         }
 
-        this.sprites.removeAll ( toRemove );
+        event.end ( );
+        if ( event.shouldCommit ( ) ) {
+            event.sprites = this.sprites.size ( );
+            event.candidatePairs = pairs;
+            event.collisions = collisions;
+            event.removed = toRemove.size ( );
+            event.commit ( );
+        }
+
+        if ( this.metrics != null )
+            start = this.metrics.recordSince ( Phase.COLLISIONS, start );
+
+        synchronized ( this.sprites ) {
+            for ( Sprite s : toRemove )
+                if ( this.sprites.remove ( s ) )
+                    this.spriteRemoved ( s );
+        }
+
+        if ( this.metrics != null )
+            this.metrics.recordSince ( Phase.REMOVAL, start );
     }
 
     /**
@@ -123,11 +212,172 @@ public class SpriteManager implements KeyListener {
      * @param visibleGameArea The currently visible area of the map
      */
     public void display ( Graphics g, Rectangle visibleGameArea ) {
-        for ( Sprite s : this.sprites ) {
-            s.draw ( g );
+        this.display ( g, visibleGameArea, 1.0 );
+    }
+
+    /**
+     * Draws all sprites using the given Graphics context
+     * alpha of the way between their positions before and
+     * after the last tick.
+     * 
+     * @param g Graphics context
+     * @param visibleGameArea The currently visible area of the map
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    public void display ( Graphics g, Rectangle visibleGameArea, double alpha ) {
+        synchronized ( this.sprites ) {
+            for ( int i = 0; i < this.sprites.size ( ); i++ ) {
+                Sprite s = this.sprites.get ( i );
+                s.render ( g, visibleGameArea, alpha );
+                s.drawn ( alpha );
+            }
+        }
+    }
+
+    /**
+     * Draws the given sprites, as collected by {@link #collect(List)},
+     * without locking the sprite manager, so that several threads
+     * can draw them at once. Since nothing is remembered about where
+     * they were drawn, this cannot be used with dirty tracking.
+     * 
+     * @param sprites The sprites to draw, in drawing order
+     * @param g Graphics context
+     * @param visibleGameArea The currently visible area of the map
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    static void display ( List<Sprite> sprites, Graphics g, Rectangle visibleGameArea, double alpha ) {
+        for ( int i = 0; i < sprites.size ( ); i++ )
+            sprites.get ( i ).render ( g, visibleGameArea, alpha );
+    }
+
+    /**
+     * Makes the sprite manager keep track of what parts of the
+     * screen change from frame to frame
+     * 
+     * @param enabled Whether to keep track of changes
+     * @see #collectDirtyRegions(DirtyRegions, Rectangle, double)
+     */
+    public void setDirtyTracking ( boolean enabled ) {
+        this.removed = enabled ? new ArrayList<Sprite> ( ) : null;
+    }
+
+    /**
+     * Marks all parts of the screen that sprites have changed since they
+     * were last drawn, including where removed sprites used to be
+     * 
+     * @param dirty The regions to add to
+     * @param visibleGameArea The currently visible area of the map
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     */
+    public void collectDirtyRegions ( DirtyRegions dirty, Rectangle visibleGameArea, double alpha ) {
+        synchronized ( this.sprites ) {
+            for ( Sprite s : this.sprites )
+                s.addDirtyRegions ( dirty, visibleGameArea, alpha );
+        }
+
+        List<Sprite> removed = this.removed;
+        if ( removed != null )
+            synchronized ( removed ) {
+                for ( Sprite s : removed )
+                    s.addDrawnRegion ( dirty, visibleGameArea );
+                removed.clear ( );
+            }
+    }
+
+    /**
+     * Writes the state of all sprites to the given buffer, and
+     * remembers which sprites there were in the given world state
+     * 
+     * @param state The state being saved
+     * @param buffer The buffer to write to
+     */
+    void save ( WorldState state, ByteBuffer buffer ) {
+        state.setSubscriptions ( this.subscriptions );
+        synchronized ( this.sprites ) {
+            buffer.putInt ( this.sprites.size ( ) );
+            for ( Sprite s : this.sprites ) {
+                state.addSprite ( s );
+                s.save ( buffer );
+            }
         }
     }
 
+    /**
+     * Replaces all sprites with the ones in the given world state,
+     * and restores their state from the given buffer.
+     * 
+     * Key subscriptions are put back as they were when the state was saved,
+     * including those of sprites that are brought back this way.
+     * 
+     * @param state The state being restored
+     * @param buffer The buffer to read from
+     */
+    void restore ( WorldState state, ByteBuffer buffer ) {
+        int count = buffer.getInt ( );
+        synchronized ( this.sprites ) {
+            // Usually no sprites have been added or removed since the state was saved
+            boolean same = count == this.sprites.size ( );
+            int i = 0;
+            for ( Iterator<Sprite> it = this.sprites.iterator ( ); same && it.hasNext ( ); i++ )
+                same = it.next ( ) == state.getSprite ( i );
+
+            if ( !same ) {
+                Set<Sprite> kept = new HashSet<Sprite> ( );
+                for ( i = 0; i < count; i++ )
+                    kept.add ( state.getSprite ( i ) );
+                for ( Sprite s : this.sprites )
+                    if ( !kept.contains ( s ) )
+                        this.spriteRemoved ( s );
+
+                this.sprites.clear ( );
+                for ( i = 0; i < count; i++ )
+                    this.sprites.add ( state.getSprite ( i ) );
+            }
+
+            for ( i = 0; i < count; i++ )
+                state.getSprite ( i ).restore ( buffer, state.getImage ( i ) );
+        }
+
+        synchronized ( this.subscriptionsLock ) {
+            this.subscriptions = state.getSubscriptions ( );
+        }
+    }
+
+    /**
+     * Adds the current state of all sprites to the given snapshot
+     * 
+     * @param snapshot The snapshot to add sprites to
+     */
+    void capture ( FrameSnapshot snapshot ) {
+        synchronized ( this.sprites ) {
+            for ( Sprite s : this.sprites )
+                snapshot.addSprite ( s );
+        }
+    }
+
+    /**
+     * Replaces the contents of the given list with all sprites, in drawing order
+     * 
+     * @param into The list to fill
+     */
+    void collect ( List<Sprite> into ) {
+        into.clear ( );
+        synchronized ( this.sprites ) {
+            // Rather than addAll, which copies the sprites to a new array first
+            for ( int i = 0; i < this.sprites.size ( ); i++ )
+                into.add ( this.sprites.get ( i ) );
+        }
+    }
+
+    /**
+     * Returns the number of sprites
+     * 
+     * @return the number of sprites
+     */
+    public int size ( ) {
+        return this.sprites.size ( );
+    }
+
     /**
      * Adds an object that should be notified when a collision is detected
      * 
@@ -146,22 +396,141 @@ public class SpriteManager implements KeyListener {
         this.spriteWatchers.remove ( c );
     }
 
+    /**
+     * Returns which keys are currently held down
+     * 
+     * @return which keys are currently held down
+     */
+    public KeyboardState getKeyboard ( ) {
+        return this.keyboard;
+    }
+
+    /**
+     * Sets whether every key event should be forwarded to every sprite.
+     * If not, sprites only receive events for keys they have subscribed
+     * to using {@link #subscribe(Sprite, int...)}.
+     * Broadcasting is on by default.
+     * 
+     * @param broadcast Whether to forward every key event to every sprite
+     */
+    public void setKeyBroadcast ( boolean broadcast ) {
+        this.keyBroadcast = broadcast;
+    }
+
+    /**
+     * Makes the given sprite receive events for the given keys when
+     * broadcasting is turned off. Key typed events have no key code,
+     * so subscribe to KeyEvent.VK_UNDEFINED to receive those.
+     * Subscriptions are forgotten when the sprite is removed.
+     * 
+     * @param s The sprite that wants the events
+     * @param codes The key codes, such as KeyEvent.VK_LEFT
+     * @see #setKeyBroadcast(boolean)
+     */
+    public void subscribe ( Sprite s, int... codes ) {
+        synchronized ( this.subscriptionsLock ) {
+            Map<Integer, Sprite[]> changed = new HashMap<Integer, Sprite[]> ( this.subscriptions );
+            for ( int code : codes ) {
+                Sprite[] subscribers = changed.get ( code );
+                if ( subscribers == null ) {
+                    subscribers = new Sprite[] { s };
+                } else if ( !Arrays.asList ( subscribers ).contains ( s ) ) {
+                    subscribers = Arrays.copyOf ( subscribers, subscribers.length + 1 );
+                    subscribers[subscribers.length - 1] = s;
+                }
+                changed.put ( code, subscribers );
+            }
+            this.subscriptions = changed;
+        }
+    }
+
+    /**
+     * Stops the given sprite from receiving events for any key
+     * when broadcasting is turned off
+     * 
+     * @param s The sprite to unsubscribe
+     */
+    public void unsubscribe ( Sprite s ) {
+        synchronized ( this.subscriptionsLock ) {
+            Map<Integer, Sprite[]> changed = null;
+            for ( Map.Entry<Integer, Sprite[]> entry : this.subscriptions.entrySet ( ) ) {
+                List<Sprite> subscribers = new ArrayList<Sprite> ( Arrays.asList ( entry.getValue ( ) ) );
+                if ( !subscribers.remove ( s ) )
+                    continue;
+
+                if ( changed == null )
+                    changed = new HashMap<Integer, Sprite[]> ( this.subscriptions );
+                if ( subscribers.isEmpty ( ) )
+                    changed.remove ( entry.getKey ( ) );
+                else
+                    changed.put ( entry.getKey ( ), subscribers.toArray ( new Sprite[subscribers.size ( )] ) );
+            }
+
+            if ( changed != null )
+                this.subscriptions = changed;
+        }
+    }
+
+    /**
+     * Returns the sprites subscribed to the given key
+     * 
+     * @param code The key code
+     * @return the subscribed sprites, or null if there are none
+     */
+    private Sprite[] getSubscribers ( int code ) {
+        return this.subscriptions.get ( code );
+    }
+
     @Override
     public void keyPressed ( KeyEvent e ) {
-        for ( Sprite s : this.sprites )
-            s.keyPressed ( e );
+        this.keyboard.press ( e.getKeyCode ( ) );
+
+        if ( this.keyBroadcast ) {
+            for ( Sprite s : this.sprites )
+                s.keyPressed ( e );
+        } else {
+            Sprite[] subscribers = this.getSubscribers ( e.getKeyCode ( ) );
+            if ( subscribers != null )
+                for ( Sprite s : subscribers )
+                    s.keyPressed ( e );
+        }
     }
 
     @Override
     public void keyTyped ( KeyEvent e ) {
-        for ( Sprite s : this.sprites )
-            s.keyTyped ( e );
+        if ( this.keyBroadcast ) {
+            for ( Sprite s : this.sprites )
+                s.keyTyped ( e );
+        } else {
+            Sprite[] subscribers = this.getSubscribers ( e.getKeyCode ( ) );
+            if ( subscribers != null )
+                for ( Sprite s : subscribers )
+                    s.keyTyped ( e );
+        }
     }
 
     @Override
     public void keyReleased ( KeyEvent e ) {
-        for ( Sprite s : this.sprites )
-            s.keyReleased ( e );
+        this.keyboard.release ( e.getKeyCode ( ) );
+
+        if ( this.keyBroadcast ) {
+            for ( Sprite s : this.sprites )
+                s.keyReleased ( e );
+        } else {
+            Sprite[] subscribers = this.getSubscribers ( e.getKeyCode ( ) );
+            if ( subscribers != null )
+                for ( Sprite s : subscribers )
+                    s.keyReleased ( e );
+        }
+    }
+
+    /**
+     * Sets where to record how long each part of a tick takes
+     * 
+     * @param metrics The metrics to record to, or null to not record anything
+     */
+    public void setMetrics ( FrameMetrics metrics ) {
+        this.metrics = metrics;
     }
 
     /**
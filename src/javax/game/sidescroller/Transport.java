@@ -0,0 +1,35 @@
+package javax.game.sidescroller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Carries packets between two players of a networked game
+ *
+ * Like UDP datagrams, packets are sent and received whole, but may arrive
+ * late, out of order, or not at all. Neither method may block.
+ *
+ * @see RollbackSession
+ * @see LoopbackTransport
+ */
+public interface Transport extends Closeable {
+    /**
+     * Sends the remaining bytes of the given buffer as one packet
+     *
+     * @param packet The packet to send
+     * @throws IOException if the packet could not be sent
+     */
+    public void send ( ByteBuffer packet ) throws IOException;
+
+    /**
+     * Receives the next packet that has arrived, if any.
+     * The buffer is cleared, and flipped for reading the packet;
+     * if the packet does not fit, the rest of it is discarded.
+     *
+     * @param packet The buffer to receive the packet into
+     * @return false if no packet has arrived
+     * @throws IOException if a packet could not be received
+     */
+    public boolean receive ( ByteBuffer packet ) throws IOException;
+}
@@ -0,0 +1,105 @@
+package javax.game.sidescroller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free triple buffer for handing objects from one producer
+ * thread to one consumer thread.
+ *
+ * The producer always has a back buffer it can write to, and the
+ * consumer always has a front buffer it can read from. Publishing
+ * swaps the back buffer with the middle one, and the consumer swaps
+ * its front buffer with the middle one whenever something new has
+ * been published. Neither side ever waits for the other, and the
+ * consumer always sees the most recently published object.
+ *
+ * Objects are reused, so the producer must fully overwrite the back
+ * buffer before publishing it.
+ *
+ * @param <T> The type of the buffered objects
+ */
+public class TripleBuffer<T> {
+
+    /**
+     * Set in {@link #middle} when the middle buffer holds
+     * something the consumer has not yet seen
+     */
+    private static final int FRESH = 4;
+
+    private static final int INDEX = 3;
+
+    private final T[] buffers;
+
+    /**
+     * Index of the middle buffer, OR'ed with FRESH if it
+     * has been published since the consumer last swapped
+     */
+    private final AtomicInteger middle;
+
+    /**
+     * Only ever touched by the producer
+     */
+    private int back;
+
+    /**
+     * Only ever touched by the consumer
+     */
+    private int front;
+
+    /**
+     * Creates a new triple buffer over the three given objects
+     *
+     * @param front The object initially held by the consumer
+     * @param middle The object initially in the middle
+     * @param back The object initially held by the producer
+     */
+    @SuppressWarnings ( "unchecked" )
+    public TripleBuffer ( T front, T middle, T back ) {
+        this.buffers = (T[]) new Object[] { front, middle, back };
+        this.front = 0;
+        this.middle = new AtomicInteger ( 1 );
+        this.back = 2;
+    }
+
+    /**
+     * Returns the object the producer should write to
+     *
+     * @return the object the producer should write to
+     */
+    public T getBack ( ) {
+        return this.buffers[this.back];
+    }
+
+    /**
+     * Publishes the back buffer to the consumer, and gives the
+     * producer a new back buffer.
+     * Should only be called by the producer.
+     */
+    public void publish ( ) {
+        this.back = this.middle.getAndSet ( this.back | FRESH ) & INDEX;
+    }
+
+    /**
+     * Swaps in the most recently published object as the front
+     * buffer if there is one.
+     * Should only be called by the consumer.
+     *
+     * @return true if the front buffer changed
+     */
+    public boolean update ( ) {
+        if ( ( this.middle.get ( ) & FRESH ) == 0 )
+            return false;
+
+        this.front = this.middle.getAndSet ( this.front ) & INDEX;
+        return true;
+    }
+
+    /**
+     * Returns the object the consumer should read from
+     *
+     * @return the object the consumer should read from
+     */
+    public T getFront ( ) {
+        return this.buffers[this.front];
+    }
+}
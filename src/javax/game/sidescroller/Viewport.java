@@ -0,0 +1,212 @@
+package javax.game.sidescroller;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * One camera looking at the game world, drawn to one region of the screen
+ *
+ * A Simulation may have any number of viewports, for instance one per player
+ * for split-screen multiplayer. They all look at the same sprites and ribbons,
+ * so the game only has to be simulated once no matter how many there are.
+ * Like the map position returned by {@link Simulation#tick()}, the camera
+ * position of a viewport is the top-left corner of the part of the map it
+ * shows, and should be moved using {@link #setPosition(Point)} during a tick.
+ *
+ * @see GamePanel#addViewport(Viewport)
+ */
+public class Viewport {
+
+    /**
+     * Where on the screen this viewport is drawn
+     */
+    private Rectangle bounds;
+
+    /**
+     * The camera position after and before the last tick
+     */
+    private Point position;
+    private Point previousPosition;
+
+    /**
+     * If set, ribbons are drawn by shifting the previous frame
+     */
+    private volatile ScrollCache scrollCache;
+
+    /**
+     * The image this viewport is rendered to before it is put on-screen
+     */
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    /**
+     * Creates a new viewport drawn to the given region of the screen,
+     * with its camera at the top-left corner of the map
+     *
+     * @param bounds Where on the screen the viewport is drawn
+     */
+    public Viewport ( Rectangle bounds ) {
+        this.bounds = new Rectangle ( bounds );
+        this.position = new Point ( 0, 0 );
+        this.previousPosition = new Point ( 0, 0 );
+    }
+
+    /**
+     * Moves the camera of this viewport
+     *
+     * @param position The new position of the top-left corner of the visible part of the map
+     */
+    public void setPosition ( Point position ) {
+        this.position = new Point ( position );
+    }
+
+    /**
+     * Returns the position of the top-left corner of the visible part of the map
+     *
+     * @return the current position of the camera
+     */
+    public Point getPosition ( ) {
+        return this.position;
+    }
+
+    /**
+     * Returns the camera position before the last tick
+     *
+     * @return the camera position before the last tick
+     */
+    public Point getPreviousPosition ( ) {
+        return this.previousPosition;
+    }
+
+    /**
+     * Returns where on the screen this viewport is drawn
+     *
+     * @return where on the screen this viewport is drawn
+     */
+    public Rectangle getBounds ( ) {
+        return this.bounds;
+    }
+
+    /**
+     * Returns the size of the visible part of the map
+     *
+     * @return the size of the visible part of the map
+     */
+    public Dimension getSize ( ) {
+        return this.bounds.getSize ( );
+    }
+
+    /**
+     * Makes scrollable ribbons in this viewport be drawn by shifting
+     * what was drawn in the previous frame
+     *
+     * @param enabled Whether to draw ribbons this way
+     * @see GamePanel#setScrollBlit(boolean)
+     */
+    public void setScrollBlit ( boolean enabled ) {
+        this.scrollCache = enabled ? new ScrollCache ( this.bounds.width, this.bounds.height ) : null;
+    }
+
+    /**
+     * Returns the cache used to draw ribbons by shifting the previous frame
+     *
+     * @return the cache of previously drawn ribbons, or null if not enabled
+     */
+    public ScrollCache getScrollCache ( ) {
+        return this.scrollCache;
+    }
+
+    /**
+     * Returns a rectangle representing the part of the game world this viewport shows
+     *
+     * @return the visible part of the game world
+     */
+    public Rectangle getVisibleMapRectangle ( ) {
+        return new Rectangle ( this.position.x, this.position.y, this.bounds.width, this.bounds.height );
+    }
+
+    /**
+     * Returns the part of the game world this viewport shows alpha of the
+     * way between the last tick and the next
+     *
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @return The interpolated visible part of the game world
+     */
+    public Rectangle getInterpolatedMapRectangle ( double alpha ) {
+        if ( alpha >= 1.0 )
+            return this.getVisibleMapRectangle ( );
+
+        int x = this.previousPosition.x + (int) Math.round ( ( this.position.x - this.previousPosition.x ) * alpha );
+        int y = this.previousPosition.y + (int) Math.round ( ( this.position.y - this.previousPosition.y ) * alpha );
+        return new Rectangle ( x, y, this.bounds.width, this.bounds.height );
+    }
+
+    /**
+     * Moves the given rectangle to the part of the game world this viewport
+     * shows alpha of the way between the last tick and the next
+     *
+     * @param alpha How far we are between the last tick (0) and the next (1)
+     * @param into The rectangle to move
+     */
+    void getInterpolatedMapRectangle ( double alpha, Rectangle into ) {
+        if ( alpha >= 1.0 ) {
+            into.setBounds ( this.position.x, this.position.y, this.bounds.width, this.bounds.height );
+            return;
+        }
+
+        int x = this.previousPosition.x + (int) Math.round ( ( this.position.x - this.previousPosition.x ) * alpha );
+        int y = this.previousPosition.y + (int) Math.round ( ( this.position.y - this.previousPosition.y ) * alpha );
+        into.setBounds ( x, y, this.bounds.width, this.bounds.height );
+    }
+
+    /**
+     * Remembers the camera position before a tick, so it can be interpolated
+     */
+    void rememberPosition ( ) {
+        this.previousPosition.setLocation ( this.position );
+    }
+
+    /**
+     * Keeps the visible part of the map within the given world area
+     *
+     * @param worldArea The world area
+     */
+    void clampTo ( Rectangle worldArea ) {
+        int x = Math.max ( worldArea.x, Math.min ( this.position.x, worldArea.x + ( worldArea.width - this.bounds.width ) ) );
+        int y = Math.max ( worldArea.y, Math.min ( this.position.y, worldArea.y + ( worldArea.height - this.bounds.height ) ) );
+        if ( x != this.position.x || y != this.position.y )
+            this.position = new Point ( x, y );
+    }
+
+    /**
+     * Returns the graphics context for rendering this viewport off-screen,
+     * creating the image to render to if needed. The same context is
+     * returned every frame, so it must not be disposed.
+     *
+     * @param gc The configuration of the screen, or null if not known
+     * @return A graphics context for the viewport image
+     */
+    Graphics2D begin ( GraphicsConfiguration gc ) {
+        if ( this.image == null ) {
+            if ( gc == null )
+                this.image = new BufferedImage ( this.bounds.width, this.bounds.height, BufferedImage.TYPE_INT_RGB );
+            else
+                this.image = gc.createCompatibleImage ( this.bounds.width, this.bounds.height );
+            this.graphics = this.image.createGraphics ( );
+        }
+        return this.graphics;
+    }
+
+    /**
+     * Returns the image this viewport was last rendered to
+     *
+     * @return the rendered image, or null if never rendered
+     */
+    BufferedImage getImage ( ) {
+        return this.image;
+    }
+}
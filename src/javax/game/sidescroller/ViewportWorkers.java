@@ -0,0 +1,151 @@
+package javax.game.sidescroller;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads that render viewports at the same time as each other
+ *
+ * Every frame, each viewport is rendered exactly once, by whichever thread
+ * gets to it first, including the thread asking for the frame. The threads
+ * are kept from frame to frame and handed work through a counter rather
+ * than a queue, so rendering a frame creates no tasks, futures or lists
+ * for the collector to clean up.
+ */
+final class ViewportWorkers {
+
+    /**
+     * Renders one viewport of the current frame
+     */
+    interface Task {
+        /**
+         * Renders the given viewport
+         *
+         * @param i Which viewport to render
+         */
+        void render ( int i );
+    }
+
+    private final Task task;
+    private final Thread[] threads;
+    private final Object lock = new Object ( );
+
+    /**
+     * Counts frames, so that workers can tell when there is a new one
+     */
+    private long frame = 0;
+
+    /**
+     * Viewports in the current frame, the next one no thread has taken yet,
+     * and the number not yet finished
+     */
+    private int count = 0;
+    private int next = 0;
+    private int unfinished = 0;
+
+    private volatile boolean running = true;
+
+    /**
+     * Starts the given number of threads, created by the given factory
+     *
+     * @param threads The number of threads to start, besides the one asking for frames
+     * @param factory Creates the threads
+     * @param task Renders each viewport
+     */
+    ViewportWorkers ( int threads, ThreadFactory factory, Task task ) {
+        this.task = task;
+        this.threads = new Thread[threads];
+
+        Runnable worker = new Runnable ( ) {
+            @Override
+            public void run ( ) {
+                ViewportWorkers.this.work ( );
+            }
+        };
+        for ( int i = 0; i < threads; i++ ) {
+            this.threads[i] = factory.newThread ( worker );
+            this.threads[i].start ( );
+        }
+    }
+
+    /**
+     * Renders the given number of viewports, and waits until all are done
+     *
+     * @param viewports The number of viewports in the frame
+     * @return false if interrupted while waiting
+     */
+    boolean render ( int viewports ) {
+        synchronized ( this.lock ) {
+            this.count = viewports;
+            this.next = 0;
+            this.unfinished = viewports;
+            this.frame++;
+            this.lock.notifyAll ( );
+        }
+
+        // Make use of this thread as well, rather than just waiting
+        this.renderAll ( );
+
+        synchronized ( this.lock ) {
+            while ( this.unfinished > 0 ) {
+                try {
+                    this.lock.wait ( );
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread ( ).interrupt ( );
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders viewports of the current frame until there are none left
+     */
+    private void renderAll ( ) {
+        while ( true ) {
+            int i;
+            synchronized ( this.lock ) {
+                if ( this.next >= this.count )
+                    return;
+                i = this.next++;
+            }
+
+            try {
+                this.task.render ( i );
+            } catch ( RuntimeException e ) {
+                System.out.println ( "Could not render viewport: " + e );
+            } finally {
+                synchronized ( this.lock ) {
+                    if ( --this.unfinished == 0 )
+                        this.lock.notifyAll ( );
+                }
+            }
+        }
+    }
+
+    private void work ( ) {
+        long seen = 0;
+        while ( this.running ) {
+            synchronized ( this.lock ) {
+                while ( this.frame == seen && this.running ) {
+                    try {
+                        this.lock.wait ( );
+                    } catch ( InterruptedException e ) {
+                        // shutdown() interrupts us, and running will be false
+                    }
+                }
+                seen = this.frame;
+            }
+            this.renderAll ( );
+        }
+    }
+
+    /**
+     * Stops the threads once they have finished the current frame
+     */
+    void shutdown ( ) {
+        this.running = false;
+        for ( Thread t : this.threads )
+            t.interrupt ( );
+    }
+}
@@ -0,0 +1,333 @@
+package javax.game.sidescroller;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many headless game worlds at once, on a few threads
+ *
+ * Each world is a {@link Simulation} with its own tick rate, and is ticked
+ * whenever its next tick is due. Rather than giving each world a thread,
+ * a loop and a timer of its own, all worlds wait in one queue ordered by
+ * when their next tick is due, and a fixed number of carrier threads take
+ * whichever world is due first, tick it, and put it back. A world is only
+ * ever ticked by one carrier at a time, so thousands of worlds can share
+ * a handful of threads as long as, between them, they keep up.
+ *
+ * A world that falls behind runs a few ticks back-to-back to catch up,
+ * and skips ahead if it falls further behind than that. How late each
+ * tick was is recorded in the {@link Phase#JITTER} histogram of the world's
+ * own metrics, alongside the timings of the tick itself.
+ *
+ * Assets that never change, such as loaded images, can be shared between
+ * all worlds using {@link #share(String, Object)}, so they are only
+ * loaded once.
+ *
+ * <pre>
+ * WorldHost host = new WorldHost ( 4 );
+ * for ( int i = 0; i &lt; 1000; i++ )
+ *     host.add ( new BotMatch ( host.getAsset ( "ships", ImageAnimator[].class ) ), 16000000L );
+ * </pre>
+ */
+public class WorldHost implements Closeable {
+
+    /**
+     * Most ticks a world runs back-to-back to catch up by default
+     */
+    public static final int DEFAULT_MAX_CATCH_UP = 5;
+
+    /**
+     * A world run by the host
+     */
+    public static class World implements Delayed {
+        private final Simulation simulation;
+        private final long interval;
+
+        /**
+         * When the next tick is due, as given by System.nanoTime
+         */
+        private long deadline;
+
+        private volatile boolean removed = false;
+        private volatile long skipped = 0;
+
+        private World ( Simulation simulation, long interval ) {
+            this.simulation = simulation;
+            this.interval = interval;
+            this.deadline = System.nanoTime ( );
+        }
+
+        /**
+         * Returns the game state of this world
+         *
+         * @return the game state of this world
+         */
+        public Simulation getSimulation ( ) {
+            return this.simulation;
+        }
+
+        /**
+         * Returns the timings of this world's ticks
+         *
+         * @return the metrics of this world
+         */
+        public FrameMetrics getMetrics ( ) {
+            return this.simulation.getMetrics ( );
+        }
+
+        /**
+         * Returns the number of nanoseconds between this world's ticks
+         *
+         * @return the tick interval in nanoseconds, or 0 if ticked as fast as possible
+         */
+        public long getInterval ( ) {
+            return this.interval;
+        }
+
+        /**
+         * Returns the number of ticks this world skipped because it fell too far behind
+         *
+         * @return the number of skipped ticks
+         */
+        public long getSkippedTicks ( ) {
+            return this.skipped;
+        }
+
+        /**
+         * Returns true if this world has been removed from its host,
+         * or stopped because its tick failed
+         *
+         * @return true if this world is no longer run
+         */
+        public boolean isRemoved ( ) {
+            return this.removed;
+        }
+
+        @Override
+        public long getDelay ( TimeUnit unit ) {
+            return unit.convert ( this.deadline - System.nanoTime ( ), TimeUnit.NANOSECONDS );
+        }
+
+        @Override
+        public int compareTo ( Delayed other ) {
+            if ( other instanceof World ) {
+                long d = this.deadline - ( (World) other ).deadline;
+                return d < 0 ? -1 : d > 0 ? 1 : 0;
+            }
+            return Long.compare ( this.getDelay ( TimeUnit.NANOSECONDS ), other.getDelay ( TimeUnit.NANOSECONDS ) );
+        }
+    }
+
+    private final DelayQueue<World> due = new DelayQueue<World> ( );
+    private final List<World> worlds = new CopyOnWriteArrayList<World> ( );
+    private final List<Thread> carriers = new ArrayList<Thread> ( );
+    private final Map<String, Object> assets = new ConcurrentHashMap<String, Object> ( );
+
+    private volatile int maxCatchUp = DEFAULT_MAX_CATCH_UP;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new host with one carrier thread per processor
+     */
+    public WorldHost ( ) {
+        this ( Runtime.getRuntime ( ).availableProcessors ( ) );
+    }
+
+    /**
+     * Creates a new host with the given number of daemon carrier threads
+     *
+     * @param carriers The number of threads to run worlds on
+     */
+    public WorldHost ( int carriers ) {
+        this ( carriers, new ThreadFactory ( ) {
+            private int n = 0;
+
+            @Override
+            public synchronized Thread newThread ( Runnable r ) {
+                Thread t = new Thread ( r, "WorldHost carrier " + this.n++ );
+                t.setDaemon ( true );
+                return t;
+            }
+        } );
+    }
+
+    /**
+     * Creates a new host with the given number of carrier threads,
+     * created by the given factory
+     *
+     * @param carriers The number of threads to run worlds on
+     * @param factory Creates the carrier threads
+     */
+    public WorldHost ( int carriers, ThreadFactory factory ) {
+        if ( carriers < 1 )
+            throw new IllegalArgumentException ( "A world host needs at least one carrier thread" );
+
+        Runnable carrier = new Runnable ( ) {
+            @Override
+            public void run ( ) {
+                WorldHost.this.carry ( );
+            }
+        };
+        for ( int i = 0; i < carriers; i++ ) {
+            Thread t = factory.newThread ( carrier );
+            this.carriers.add ( t );
+            t.start ( );
+        }
+    }
+
+    /**
+     * Starts running the given world, with its first tick right away
+     *
+     * @param simulation The world to run
+     * @param tickInterval Nanoseconds between ticks, or 0 to tick as fast as possible
+     * @return The handle of the world in this host
+     */
+    public World add ( Simulation simulation, long tickInterval ) {
+        World w = new World ( simulation, tickInterval );
+        this.worlds.add ( w );
+        this.due.add ( w );
+        return w;
+    }
+
+    /**
+     * Stops running the given world.
+     * A tick already in progress is finished first.
+     *
+     * @param w The world to stop
+     */
+    public void remove ( World w ) {
+        w.removed = true;
+        this.worlds.remove ( w );
+        this.due.remove ( w );
+    }
+
+    /**
+     * Returns every world being run
+     *
+     * @return the worlds being run
+     */
+    public List<World> getWorlds ( ) {
+        return this.worlds;
+    }
+
+    /**
+     * Sets the most ticks a world runs back-to-back to catch up
+     * before it skips ahead instead
+     *
+     * @param ticks The most ticks to run at once
+     */
+    public void setMaxCatchUp ( int ticks ) {
+        this.maxCatchUp = ticks;
+    }
+
+    /**
+     * Makes the given asset available to all worlds.
+     * Assets must not be changed once shared, since any number
+     * of worlds may be using them at the same time.
+     *
+     * @param name The name of the asset
+     * @param asset The asset
+     */
+    public void share ( String name, Object asset ) {
+        this.assets.put ( name, asset );
+    }
+
+    /**
+     * Returns the shared asset with the given name
+     *
+     * @param name The name of the asset
+     * @param type The type of the asset
+     * @return the asset, or null if there is no such asset
+     */
+    public <T> T getAsset ( String name, Class<T> type ) {
+        return type.cast ( this.assets.get ( name ) );
+    }
+
+    /**
+     * Takes worlds as they become due and ticks them, until the host is closed
+     */
+    private void carry ( ) {
+        while ( this.running ) {
+            World w;
+            try {
+                w = this.due.take ( );
+            } catch ( InterruptedException e ) {
+                break;
+            }
+            if ( w.removed )
+                continue;
+
+            try {
+                this.tick ( w );
+            } catch ( RuntimeException e ) {
+                System.out.println ( "Stopping world after its tick failed: " + e );
+                this.remove ( w );
+                continue;
+            }
+
+            if ( !w.removed && this.running )
+                this.due.add ( w );
+        }
+    }
+
+    /**
+     * Runs the ticks of the given world that are due
+     *
+     * @param w The world to tick
+     */
+    private void tick ( World w ) {
+        Histogram jitter = w.getMetrics ( ).getHistogram ( Phase.JITTER );
+        long now = System.nanoTime ( );
+        jitter.record ( Math.max ( 0, now - w.deadline ) );
+
+        if ( w.interval <= 0 ) {
+            w.simulation.step ( );
+            w.deadline = System.nanoTime ( );
+            return;
+        }
+
+        int ticks = 0;
+        int max = Math.max ( 1, this.maxCatchUp );
+        do {
+            w.simulation.step ( );
+            w.deadline += w.interval;
+            ticks++;
+        } while ( ticks < max && w.deadline - System.nanoTime ( ) <= 0 && !w.removed );
+
+        // Too far behind to catch up, so skip ahead
+        now = System.nanoTime ( );
+        if ( now - w.deadline > max * w.interval ) {
+            long behind = ( now - w.deadline ) / w.interval;
+            w.skipped += behind;
+            w.deadline += behind * w.interval;
+        }
+    }
+
+    /**
+     * Stops running all worlds, and waits for the carrier threads to finish
+     */
+    @Override
+    public void close ( ) {
+        this.running = false;
+        for ( Thread t : this.carriers )
+            t.interrupt ( );
+
+        for ( Thread t : this.carriers ) {
+            try {
+                t.join ( );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread ( ).interrupt ( );
+                break;
+            }
+        }
+        this.due.clear ( );
+    }
+}
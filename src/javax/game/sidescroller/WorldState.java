@@ -0,0 +1,178 @@
+package javax.game.sidescroller;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.media.utils.loaders.images.ImageAnimator;
+
+/**
+ * A snapshot of an entire game world, for quick-saving or rolling back
+ *
+ * Everything that changes from tick to tick is written to a flat byte
+ * buffer: the camera positions, the tick count, the state of the random
+ * number generator, and the position, speed and hitboxes of every sprite,
+ * along with whatever each sprite writes in {@link Sprite#writeState(ByteBuffer)}.
+ * The sprites themselves, and the image animators they use, are kept by
+ * reference, so restoring a state also brings back sprites that have since
+ * been removed, and removes sprites that have since been added.
+ *
+ * A WorldState may be saved to over and over, and only allocates when the
+ * world has grown larger than any state saved to it before, so saving and
+ * restoring states every tick is cheap.
+ *
+ * @see Simulation#saveState(WorldState)
+ * @see Simulation#restoreState(WorldState)
+ */
+public class WorldState {
+
+    private ByteBuffer data;
+
+    /**
+     * The sprites in the world, in drawing order, and their animators
+     */
+    private Sprite[] sprites = new Sprite[0];
+    private ImageAnimator[] images = new ImageAnimator[0];
+    private int spriteCount = 0;
+
+    /**
+     * The key subscriptions of the sprites, which are never
+     * changed once saved, so are kept as is
+     */
+    private Map<Integer, Sprite[]> subscriptions = Collections.emptyMap ( );
+
+    /**
+     * Creates a new, empty state
+     */
+    public WorldState ( ) {
+        this ( 4096 );
+    }
+
+    /**
+     * Creates a new, empty state with room for the given number of bytes
+     *
+     * @param capacity The number of bytes to make room for initially
+     */
+    public WorldState ( int capacity ) {
+        this.data = ByteBuffer.allocate ( capacity );
+    }
+
+    /**
+     * Returns the saved state as bytes, for instance to write it to disk.
+     * Note that the sprites themselves are not part of this.
+     *
+     * @return a read-only view of the saved bytes
+     */
+    public ByteBuffer getData ( ) {
+        ByteBuffer view = this.data.asReadOnlyBuffer ( );
+        view.flip ( );
+        return view;
+    }
+
+    /**
+     * Returns the number of bytes used by the saved state
+     *
+     * @return the number of bytes used by the saved state
+     */
+    public int getSize ( ) {
+        return this.data.position ( );
+    }
+
+    /**
+     * Returns the number of sprites in the saved state
+     *
+     * @return the number of sprites in the saved state
+     */
+    public int getSpriteCount ( ) {
+        return this.spriteCount;
+    }
+
+    /**
+     * Returns the given sprite in the saved state
+     *
+     * @param i Which sprite to return, in drawing order
+     * @return the sprite
+     */
+    public Sprite getSprite ( int i ) {
+        return this.sprites[i];
+    }
+
+    /**
+     * Clears the state before saving to it
+     *
+     * @return the buffer to write the state to
+     */
+    ByteBuffer begin ( ) {
+        this.data.clear ( );
+        for ( int i = 0; i < this.spriteCount; i++ ) {
+            this.sprites[i] = null;
+            this.images[i] = null;
+        }
+        this.spriteCount = 0;
+        this.subscriptions = Collections.emptyMap ( );
+        return this.data;
+    }
+
+    /**
+     * Makes room for a larger state, after writing the last one overflowed
+     */
+    void grow ( ) {
+        this.data = ByteBuffer.allocate ( this.data.capacity ( ) * 2 );
+    }
+
+    /**
+     * Returns the buffer to read the state from, positioned at its start
+     *
+     * @return the buffer to read the state from
+     */
+    ByteBuffer read ( ) {
+        ByteBuffer view = this.data.duplicate ( );
+        view.flip ( );
+        return view;
+    }
+
+    /**
+     * Adds a sprite to the saved state, in drawing order
+     *
+     * @param s The sprite
+     */
+    void addSprite ( Sprite s ) {
+        if ( this.spriteCount == this.sprites.length ) {
+            int size = Math.max ( 16, this.spriteCount * 2 );
+            this.sprites = Arrays.copyOf ( this.sprites, size );
+            this.images = Arrays.copyOf ( this.images, size );
+        }
+        this.sprites[this.spriteCount] = s;
+        this.images[this.spriteCount] = s.image;
+        this.spriteCount++;
+    }
+
+    /**
+     * Returns the image animator the given sprite had when the state was saved
+     *
+     * @param i Which sprite, in drawing order
+     * @return the sprite's image animator
+     */
+    ImageAnimator getImage ( int i ) {
+        return this.images[i];
+    }
+
+    /**
+     * Sets the key subscriptions of the saved sprites
+     *
+     * @param subscriptions The sprites subscribed to each key code
+     */
+    void setSubscriptions ( Map<Integer, Sprite[]> subscriptions ) {
+        this.subscriptions = subscriptions;
+    }
+
+    /**
+     * Returns the key subscriptions of the sprites when the state was saved
+     *
+     * @return the sprites subscribed to each key code
+     */
+    Map<Integer, Sprite[]> getSubscriptions ( ) {
+        return this.subscriptions;
+    }
+}